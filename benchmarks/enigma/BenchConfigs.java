@@ -0,0 +1,70 @@
+package enigma;
+
+import java.io.File;
+import java.util.Random;
+
+/** Configurations and messages shared by the benchmarks.  The
+ *  configuration files are those of testing/correct, found through the
+ *  system property enigma.configs (by default, ../testing/correct,
+ *  which is right when running from the benchmarks directory).
+ *  @author Smit Malde
+ */
+final class BenchConfigs {
+
+    /** Not instantiable. */
+    private BenchConfigs() {
+    }
+
+    /** Names of the configurations benchmarked, as used in @Param. */
+    static final String DEFAULT = "default", NEWCHARS = "01-newchars",
+        STEP = "05-step";
+
+    /** Return the configuration file for configuration CONF. */
+    static String configFile(String conf) {
+        String dir = System.getProperty("enigma.configs",
+                                        "../testing/correct");
+        return new File(dir, conf + ".conf").getPath();
+    }
+
+    /** Return a setting line that suits configuration CONF. */
+    static String settingLine(String conf) {
+        switch (conf) {
+        case DEFAULT:
+            return "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+        case NEWCHARS:
+            return "* RF Rot1 2";
+        case STEP:
+            return "* B VI VIII III II I ZMVEQ";
+        default:
+            throw new IllegalArgumentException("unknown configuration "
+                                               + conf);
+        }
+    }
+
+    /** Return a machine of configuration CONF, set up by its setting
+     *  line. */
+    static Machine machine(String conf) {
+        return machine(conf, ConversionEngine.TABLE);
+    }
+
+    /** Return a machine of configuration CONF converting through
+     *  ENGINE, set up by its setting line as Main sets up machines. */
+    static Machine machine(String conf, ConversionEngine engine) {
+        Machine machine = Main.readConfig(configFile(conf)).newMachine();
+        machine.setEngine(engine);
+        Main.setUp(machine, settingLine(conf));
+        return machine;
+    }
+
+    /** Return a message of LENGTH characters drawn at random (but the
+     *  same each time) from ALPHA. */
+    static char[] message(Alphabet alpha, int length) {
+        Random random = new Random(length);
+        char[] result = new char[length];
+        for (int i = 0; i < length; i += 1) {
+            result[i] = alpha.toChar(random.nextInt(alpha.size()));
+        }
+        return result;
+    }
+
+}
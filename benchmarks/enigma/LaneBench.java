@@ -0,0 +1,102 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of converting many short messages, each under its own
+ *  key, with the scalar LaneConverter, with the one picked by
+ *  LaneConverter.forSpec (the Vector API lanes, under 'make
+ *  run-vector'), and with one Machine restored to each key in turn.
+ *  @author Smit Malde
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+public class LaneBench {
+
+    /** Messages and keys for the default configuration. */
+    @State(Scope.Thread)
+    public static class Batch {
+
+        /** Number of messages. */
+        @Param({ "1000", "10000" })
+        public int messages;
+
+        /** Number of characters in each message. */
+        @Param({ "50", "1000" })
+        public int length;
+
+        /** Set up the keys, messages, and converters. */
+        @Setup
+        public void setUp() {
+            Machine machine = BenchConfigs.machine(BenchConfigs.DEFAULT);
+            _spec = machine.spec();
+            _keys = new MachineState[messages];
+            _msgs = new String[messages];
+            Random random = new Random(messages);
+            int[] setting = new int[_spec.numRotors() - 1];
+            for (int l = 0; l < messages; l += 1) {
+                for (int k = 0; k < setting.length; k += 1) {
+                    setting[k] = random.nextInt(_spec.alphabet().size());
+                }
+                machine.setRotors(setting);
+                _keys[l] = machine.state();
+                _msgs[l] = new String(BenchConfigs.message(_spec.alphabet(),
+                                                           length));
+            }
+            _lanes = new LaneConverter(_spec);
+            _chosen = LaneConverter.forSpec(_spec);
+            _machine = _spec.newMachine();
+        }
+
+        /** Specification of the machines. */
+        private MachineSpec _spec;
+
+        /** Key and text of each message. */
+        private MachineState[] _keys;
+        private String[] _msgs;
+
+        /** Converters measured. */
+        private LaneConverter _lanes;
+        private LaneConverter _chosen;
+        private Machine _machine;
+    }
+
+    /** Convert BATCH in lanes. */
+    @Benchmark
+    public String[] lanes(Batch batch) {
+        return batch._lanes.convert(batch._keys, batch._msgs);
+    }
+
+    /** Convert BATCH in the lanes picked by LaneConverter.forSpec. */
+    @Benchmark
+    public String[] chosenLanes(Batch batch) {
+        return batch._chosen.convert(batch._keys, batch._msgs);
+    }
+
+    /** Convert BATCH one message at a time. */
+    @Benchmark
+    public String[] machine(Batch batch) {
+        String[] result = new String[batch._msgs.length];
+        for (int l = 0; l < result.length; l += 1) {
+            batch._machine.restore(batch._keys[l]);
+            result[l] = batch._machine.convert(batch._msgs[l]);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,88 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of Machine.convert on single characters and on messages
+ *  from 1 KB to 100 MB, with each conversion engine.
+ *  @author Smit Malde
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+public class MachineBench {
+
+    /** A machine set up for one of the configurations. */
+    @State(Scope.Thread)
+    public static class Conf {
+
+        /** Configuration measured. */
+        @Param({ BenchConfigs.DEFAULT, BenchConfigs.NEWCHARS,
+                 BenchConfigs.STEP })
+        public String conf;
+
+        /** Name of the conversion engine measured. */
+        @Param({ "reference", "table", "keystream" })
+        public String engine;
+
+        /** Machine measured. */
+        private Machine _machine;
+
+        /** Next character index converted by convertInt. */
+        private int _next;
+
+        /** Set up _machine for CONF. */
+        @Setup
+        public void setUp() {
+            _machine = BenchConfigs.machine(
+                conf, ConversionEngine.named(engine));
+        }
+    }
+
+    /** A message to convert. */
+    @State(Scope.Thread)
+    public static class Message {
+
+        /** Number of characters in the message. */
+        @Param({ "1024", "1048576", "104857600" })
+        public int length;
+
+        /** The message. */
+        private String _text;
+
+        /** Set up _text, in the alphabet of CONF, for LENGTH. */
+        @Setup
+        public void setUp(Conf conf) {
+            _text = new String(BenchConfigs.message(
+                                   conf._machine.alphabet(), length));
+        }
+    }
+
+    /** Convert one character of CONF's alphabet, advancing the rotors. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int convertInt(Conf conf) {
+        conf._next = (conf._next + 1) % conf._machine.alphabet().size();
+        return conf._machine.convert(conf._next);
+    }
+
+    /** Convert the whole of MESSAGE with CONF's machine. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String convertString(Conf conf, Message message) {
+        return conf._machine.convert(message._text);
+    }
+
+}
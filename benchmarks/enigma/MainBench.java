@@ -0,0 +1,101 @@
+package enigma;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of reading a configuration file with Main.readConfig, and
+ *  of Main.process from files to file end to end.
+ *  @author Smit Malde
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+public class MainBench {
+
+    /** One of the configurations. */
+    @State(Scope.Thread)
+    public static class Conf {
+
+        /** Configuration measured. */
+        @Param({ BenchConfigs.DEFAULT, BenchConfigs.NEWCHARS,
+                 BenchConfigs.STEP })
+        public String conf;
+    }
+
+    /** Input and output files for Main. */
+    @State(Scope.Thread)
+    public static class Files {
+
+        /** Number of message characters in the input file. */
+        @Param({ "1024", "1048576", "104857600" })
+        public int length;
+
+        /** Write an input file for CONF with LENGTH message characters,
+         *  in lines of LINE characters, and choose an output file. */
+        @Setup(Level.Trial)
+        public void setUp(Conf conf) throws IOException {
+            _input = File.createTempFile("enigma-bench", ".in");
+            _output = File.createTempFile("enigma-bench", ".out");
+            MachineSpec spec =
+                Main.readConfig(BenchConfigs.configFile(conf.conf));
+            char[] message = BenchConfigs.message(spec.alphabet(), length);
+            try (Writer out = new FileWriter(_input)) {
+                out.write(BenchConfigs.settingLine(conf.conf));
+                out.write('\n');
+                for (int i = 0; i < length; i += LINE) {
+                    out.write(message, i, Math.min(LINE, length - i));
+                    out.write('\n');
+                }
+            }
+        }
+
+        /** Remove the files made by setUp. */
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            _input.delete();
+            _output.delete();
+        }
+
+        /** Input and output files. */
+        private File _input, _output;
+    }
+
+    /** Read and compile CONF's configuration file. */
+    @Benchmark
+    public Object readConfig(Conf conf) {
+        return Main.readConfig(BenchConfigs.configFile(conf.conf));
+    }
+
+    /** Run Main on CONF's configuration and FILES. */
+    @Benchmark
+    public void process(Conf conf, Files files) {
+        new Main(Arrays.asList(BenchConfigs.configFile(conf.conf),
+                               files._input.getPath(),
+                               files._output.getPath()))
+            .process();
+    }
+
+    /** Number of message characters on each input line. */
+    private static final int LINE = 1 << 12;
+
+}
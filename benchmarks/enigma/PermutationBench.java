@@ -0,0 +1,64 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of Permutation.permute and Permutation.invert, applied
+ *  to every index of the fast rotor's permutation in turn.
+ *  @author Smit Malde
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PermutationBench {
+
+    /** Configuration whose fast rotor is measured. */
+    @Param({ BenchConfigs.DEFAULT, BenchConfigs.NEWCHARS,
+             BenchConfigs.STEP })
+    public String conf;
+
+    /** Permutation measured. */
+    private Permutation _perm;
+
+    /** Set up _perm for CONF. */
+    @Setup
+    public void setUp() {
+        Machine machine = BenchConfigs.machine(conf);
+        _perm = machine.getRotor(machine.numRotors() - 1).permutation();
+    }
+
+    /** Permute every index, returning a value depending on them all. */
+    @Benchmark
+    public int permute() {
+        int sum = 0;
+        for (int p = 0; p < _perm.size(); p += 1) {
+            sum += _perm.permute(p);
+        }
+        return sum;
+    }
+
+    /** Invert every index, returning a value depending on them all. */
+    @Benchmark
+    public int invert() {
+        int sum = 0;
+        for (int c = 0; c < _perm.size(); c += 1) {
+            sum += _perm.invert(c);
+        }
+        return sum;
+    }
+
+}
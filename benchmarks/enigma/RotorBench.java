@@ -0,0 +1,72 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of Rotor.convertForward and Rotor.convertBackward for the
+ *  fast rotor, applied to every contact in turn, with and without
+ *  precomputed tables.
+ *  @author Smit Malde
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RotorBench {
+
+    /** Configuration whose fast rotor is measured. */
+    @Param({ BenchConfigs.DEFAULT, BenchConfigs.NEWCHARS,
+             BenchConfigs.STEP })
+    public String conf;
+
+    /** True to convert through precomputed tables. */
+    @Param({ "true", "false" })
+    public boolean tableDriven;
+
+    /** Rotor measured. */
+    private Rotor _rotor;
+
+    /** Set up _rotor for CONF and TABLEDRIVEN. */
+    @Setup
+    public void setUp() {
+        Machine machine = BenchConfigs.machine(conf);
+        _rotor = machine.getRotor(machine.numRotors() - 1).copy();
+        _rotor.setTableDriven(tableDriven);
+    }
+
+    /** Convert every contact forward, returning a value depending on
+     *  them all. */
+    @Benchmark
+    public int convertForward() {
+        int sum = 0;
+        for (int p = 0; p < _rotor.size(); p += 1) {
+            sum += _rotor.convertForward(p);
+        }
+        return sum;
+    }
+
+    /** Convert every contact backward, returning a value depending on
+     *  them all. */
+    @Benchmark
+    public int convertBackward() {
+        int sum = 0;
+        for (int e = 0; e < _rotor.size(); e += 1) {
+            sum += _rotor.convertBackward(e);
+        }
+        return sum;
+    }
+
+}
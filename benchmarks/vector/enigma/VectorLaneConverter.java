@@ -0,0 +1,228 @@
+package enigma;
+
+import java.util.IdentityHashMap;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** A LaneConverter that converts its lanes with the incubating Vector
+ *  API.  Every table a lane uses (its pawled rotors' forward and
+ *  backward tables, combined non-moving rotors, plugboard, and notches)
+ *  is copied once into one flat array, and each lane keeps its offset
+ *  into it.  A vector of lanes then steps with masked adds and converts
+ *  each stage with one gather, at each lane's offset plus its rotor's
+ *  setting and current character, keeping the lanes' settings in
+ *  registers for the whole of their messages.
+ *
+ *  This class is compiled only by the benchmarks' vector build, with
+ *  --add-modules jdk.incubator.vector; LaneConverter.forSpec loads it by
+ *  reflection when it and the module are present.
+ *  @author Smit Malde
+ */
+class VectorLaneConverter extends LaneConverter {
+
+    /** A converter for machines specified by SPEC. */
+    VectorLaneConverter(MachineSpec spec) {
+        super(spec);
+    }
+
+    @Override
+    void convert(Lanes lanes) {
+        int n = lanes.n, m = lanes.pos.length, count = lanes.text.length;
+        Flat flat = new Flat(count);
+        int[][] forward = new int[m][count], backward = new int[m][count];
+        int[][] notch = new int[m][count];
+        int[] reflection = new int[count], plugboard = new int[count];
+        int[] text = new int[count], length = new int[count];
+        for (int a = 0; a < count; a += 1) {
+            for (int k = 0; k < m; k += 1) {
+                forward[k][a] = flat.add(lanes.forward[k][a]);
+                backward[k][a] = flat.add(lanes.backward[k][a]);
+                notch[k][a] = flat.add(lanes.notches[k][a]);
+            }
+            reflection[a] = flat.add(lanes.reflection[a]);
+            plugboard[a] = flat.add(lanes.plugboard[a]);
+            text[a] = flat.addText(lanes.text[a]);
+            length[a] = lanes.text[a].length;
+        }
+        int[] tables = flat.tables();
+
+        int last = m - 1, width = SPECIES.length();
+        int[] index = new int[width];
+        IntVector[] pos = new IntVector[m], forwardAt = new IntVector[m],
+            backwardAt = new IntVector[m], notchAt = new IntVector[m];
+        for (int v = 0; v < count; v += width) {
+            VectorMask<Integer> lane = SPECIES.indexInRange(v, count);
+            for (int k = 0; k < m; k += 1) {
+                pos[k] = IntVector.fromArray(SPECIES, lanes.pos[k], v,
+                                             lane);
+                forwardAt[k] = IntVector.fromArray(SPECIES, forward[k], v,
+                                                   lane);
+                backwardAt[k] = IntVector.fromArray(SPECIES, backward[k],
+                                                    v, lane);
+                notchAt[k] = IntVector.fromArray(SPECIES, notch[k], v,
+                                                 lane);
+            }
+            IntVector reflectionAt =
+                IntVector.fromArray(SPECIES, reflection, v, lane);
+            IntVector plugboardAt =
+                IntVector.fromArray(SPECIES, plugboard, v, lane);
+            IntVector textAt = IntVector.fromArray(SPECIES, text, v, lane);
+            IntVector lengthAt =
+                IntVector.fromArray(SPECIES, length, v, lane);
+            for (int t = 0; t < length[v]; t += 1) {
+                VectorMask<Integer> live =
+                    lengthAt.compare(VectorOperators.GT, t).and(lane);
+                for (int k = 0; k < last; k += 1) {
+                    VectorMask<Integer> step =
+                        gather(tables, notchAt[k + 1].add(pos[k + 1]),
+                               index, live)
+                        .compare(VectorOperators.NE, 0);
+                    if (k > 0) {
+                        step = step.or(gather(tables, notchAt[k].add(pos[k]),
+                                              index, live)
+                                       .compare(VectorOperators.NE, 0));
+                    }
+                    pos[k] = advance(pos[k], step.and(live), n);
+                }
+                if (last >= 0) {
+                    pos[last] = advance(pos[last], live, n);
+                }
+                IntVector at = textAt.add(t);
+                IntVector c = gather(tables, at, index, live);
+                c = gather(tables, plugboardAt.add(c), index, live);
+                for (int k = last; k >= 0; k -= 1) {
+                    c = gather(tables,
+                               forwardAt[k].add(pos[k].mul(n)).add(c),
+                               index, live);
+                }
+                c = gather(tables, reflectionAt.add(c), index, live);
+                for (int k = 0; k <= last; k += 1) {
+                    c = gather(tables,
+                               backwardAt[k].add(pos[k].mul(n)).add(c),
+                               index, live);
+                }
+                c = gather(tables, plugboardAt.add(c), index, live);
+                at.intoArray(index, 0);
+                c.intoArray(tables, 0, index, 0, live);
+            }
+            for (int k = 0; k < m; k += 1) {
+                pos[k].intoArray(lanes.pos[k], v, lane);
+            }
+        }
+
+        for (int a = 0; a < count; a += 1) {
+            System.arraycopy(tables, text[a], lanes.text[a], 0, length[a]);
+        }
+    }
+
+    /** Return the elements of TABLES at the indices in AT, for the lanes
+     *  in MASK, using INDEX as scratch. */
+    private static IntVector gather(int[] tables, IntVector at, int[] index,
+                                    VectorMask<Integer> mask) {
+        at.intoArray(index, 0);
+        return IntVector.fromArray(SPECIES, tables, 0, index, 0, mask);
+    }
+
+    /** Return the rotor settings POS, each advanced by one modulo N in
+     *  the lanes in MASK. */
+    private static IntVector advance(IntVector pos, VectorMask<Integer> mask,
+                                     int n) {
+        IntVector result = pos.add(1, mask);
+        return result.blend(0, result.compare(VectorOperators.EQ, n));
+    }
+
+    /** The tables of a batch of lanes, flattened into one array. */
+    private static final class Flat {
+
+        /** Flat tables for LANES lanes. */
+        Flat(int lanes) {
+            _tables = new int[Math.max(1, lanes) * INITIAL_PER_LANE];
+        }
+
+        /** Return the offset of TABLE, indexed by [setting][input], with
+         *  its rows in order, adding it if it is not yet present. */
+        int add(int[][] table) {
+            Integer offset = _offsets.get(table);
+            if (offset == null) {
+                offset = _size;
+                for (int[] row : table) {
+                    append(row);
+                }
+                _offsets.put(table, offset);
+            }
+            return offset;
+        }
+
+        /** Return the offset of TABLE, adding it if it is not yet
+         *  present. */
+        int add(int[] table) {
+            Integer offset = _offsets.get(table);
+            if (offset == null) {
+                offset = append(table);
+                _offsets.put(table, offset);
+            }
+            return offset;
+        }
+
+        /** Return the offset of NOTCHES, as 1 at each setting at a notch
+         *  and 0 elsewhere, adding it if it is not yet present. */
+        int add(boolean[] notches) {
+            Integer offset = _offsets.get(notches);
+            if (offset == null) {
+                int[] values = new int[notches.length];
+                for (int p = 0; p < notches.length; p += 1) {
+                    values[p] = notches[p] ? 1 : 0;
+                }
+                offset = append(values);
+                _offsets.put(notches, offset);
+            }
+            return offset;
+        }
+
+        /** Return the offset of a copy of the text TEXT, which is
+         *  converted there in place. */
+        int addText(int[] text) {
+            return append(text);
+        }
+
+        /** Return the flat array holding everything added. */
+        int[] tables() {
+            return _tables;
+        }
+
+        /** Append VALUES and return their offset. */
+        private int append(int[] values) {
+            int offset = _size;
+            if (_size + values.length > _tables.length) {
+                int[] grown = new int[Math.max(2 * _tables.length,
+                                               _size + values.length)];
+                System.arraycopy(_tables, 0, grown, 0, _size);
+                _tables = grown;
+            }
+            System.arraycopy(values, 0, _tables, _size, values.length);
+            _size += values.length;
+            return offset;
+        }
+
+        /** Elements initially reserved for each lane. */
+        private static final int INITIAL_PER_LANE = 64;
+
+        /** All the tables added, followed by free space. */
+        private int[] _tables;
+
+        /** Number of elements of _tables in use. */
+        private int _size;
+
+        /** Offset of each array added, by identity. */
+        private final IdentityHashMap<Object, Integer> _offsets =
+            new IdentityHashMap<Object, Integer>();
+    }
+
+    /** Vector shape used for lanes. */
+    private static final VectorSpecies<Integer> SPECIES =
+        IntVector.SPECIES_PREFERRED;
+
+}
@@ -1,5 +1,6 @@
 package enigma;
-import java.util.ArrayList;
+
+import java.util.Arrays;
 
 /** An alphabet of encodable characters.  Provides a mapping from characters
  *  to and from indices into the alphabet.
@@ -9,12 +10,24 @@ class Alphabet {
     /** A new alphabet containing CHARS. The K-th character has index
      *  K (numbering from 0). No character may be duplicated. */
     Alphabet(String chars) {
-        alph = new ArrayList<Character>();
+        char[] alph = new char[chars.length()];
+        int size = 0;
+        char min = Character.MAX_VALUE, max = Character.MIN_VALUE;
         for (int i = 0; i < chars.length(); i++) {
-            if (alph.contains(chars.charAt(i))) {
+            char ch = chars.charAt(i);
+            if (chars.indexOf(ch) != i) {
                 continue;
             }
-            alph.add(chars.charAt(i));
+            alph[size] = ch;
+            size += 1;
+            min = (char) Math.min(min, ch);
+            max = (char) Math.max(max, ch);
+        }
+        _chars = Arrays.copyOf(alph, size);
+        if (size == 0 || max - min < DENSE_LIMIT) {
+            buildDense(min, max);
+        } else {
+            buildHashed();
         }
     }
 
@@ -25,37 +38,91 @@ class Alphabet {
 
     /** Returns the size of the alphabet. */
     int size() {
-        return alph.size();
+        return _chars.length;
     }
 
     /** Returns true if CH is in this alphabet. */
     boolean contains(char ch) {
-        return alph.contains(ch);
+        return toInt(ch) >= 0;
     }
 
     /** Returns character number INDEX in the alphabet, where
      *  0 <= INDEX < size(). */
     char toChar(int index) {
-        return alph.get(index);
+        return _chars[index];
     }
 
     /** Returns the index of character CH which must be in
-     *  the alphabet. This is the inverse of toChar(). */
+     *  the alphabet. This is the inverse of toChar(). Returns -1 if
+     *  CH is not in the alphabet. */
     int toInt(char ch) {
-        return alph.indexOf(ch);
+        if (_dense != null) {
+            int k = ch - _base;
+            if (k < 0 || k >= _dense.length) {
+                return -1;
+            }
+            return _dense[k];
+        }
+        int mask = _keys.length - 1;
+        for (int k = ch & mask; ; k = (k + 1) & mask) {
+            if (_indices[k] < 0 || _keys[k] == ch) {
+                return _indices[k];
+            }
+        }
+    }
+
+    /** Fill in the direct-mapped index for characters in the range
+     *  MIN..MAX. */
+    private void buildDense(char min, char max) {
+        _base = min;
+        _dense = new int[Math.max(0, max - min + 1)];
+        Arrays.fill(_dense, -1);
+        for (int i = 0; i < _chars.length; i++) {
+            _dense[_chars[i] - _base] = i;
+        }
+    }
+
+    /** Fill in an open-addressed index for alphabets whose characters
+     *  are spread too thinly over the character range to map directly. */
+    private void buildHashed() {
+        int capacity = Integer.highestOneBit(_chars.length) * 4;
+        _keys = new char[capacity];
+        _indices = new int[capacity];
+        Arrays.fill(_indices, -1);
+        int mask = capacity - 1;
+        for (int i = 0; i < _chars.length; i++) {
+            int k = _chars[i] & mask;
+            while (_indices[k] >= 0) {
+                k = (k + 1) & mask;
+            }
+            _keys[k] = _chars[i];
+            _indices[k] = i;
+        }
     }
 
     @Override
     public String toString() {
-        StringBuilder alphabet = new StringBuilder();
-        for (Character letter: alph) {
-            alphabet.append(letter);
-        }
-        return alphabet.toString();
+        return new String(_chars);
     }
 
-    /** A list that contains the alphabets. */
-    private ArrayList<Character> alph;
+    /** Widest character range that is mapped with a direct table. */
+    private static final int DENSE_LIMIT = 1 << 12;
+
+    /** The characters of this alphabet, in index order. */
+    private final char[] _chars;
+
+    /** Index of each character C at [C - _base], or -1, when the
+     *  alphabet is mapped directly; otherwise null. */
+    private int[] _dense;
+
+    /** Smallest character in a directly mapped alphabet. */
+    private char _base;
+
+    /** Hashed characters of a sparse alphabet, probed linearly. */
+    private char[] _keys;
 
+    /** Index of the character in the same slot of _keys, or -1 for an
+     *  empty slot. */
+    private int[] _indices;
 
 }
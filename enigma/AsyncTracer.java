@@ -0,0 +1,122 @@
+package enigma;
+
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/** A Tracer that prints one line per converted character, in the form
+ *  "[SETTINGS] C -> C1 -> ... -> OUT".  Records are collected in a
+ *  buffer and handed in large chunks to a background thread that does
+ *  the actual printing, so the converting thread never waits on output
+ *  unless it gets far ahead of it.
+ *  @author Smit Malde
+ */
+class AsyncTracer implements Tracer {
+
+    /** A tracer printing to OUT. */
+    AsyncTracer(PrintStream out) {
+        _out = out;
+        _buffer = new StringBuilder(CHUNK + CHUNK / 4);
+        _pending = new ArrayBlockingQueue<String>(QUEUE_LENGTH);
+        _flushed = new Semaphore(0);
+        Thread writer = new Thread(this::drain, "enigma-trace");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public boolean enabled() {
+        return true;
+    }
+
+    @Override
+    public void begin(CharSequence settings, char input) {
+        _buffer.append('[').append(settings).append("] ")
+            .append(input).append(" -> ");
+    }
+
+    @Override
+    public void hop(char contact) {
+        _buffer.append(contact).append(" -> ");
+    }
+
+    @Override
+    public void end(char output) {
+        _buffer.append(output).append(NEWLINE);
+        if (_buffer.length() >= CHUNK) {
+            handOff(_buffer.toString());
+            _buffer.setLength(0);
+        }
+    }
+
+    /** Deliver all records so far, returning once they are printed. */
+    @Override
+    public void flush() {
+        if (_buffer.length() > 0) {
+            handOff(_buffer.toString());
+            _buffer.setLength(0);
+        }
+        handOff(FLUSH);
+        _flushed.acquireUninterruptibly();
+    }
+
+    /** Queue CHUNK for the writer thread, waiting for room if need be. */
+    private void handOff(String chunk) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                _pending.put(chunk);
+                break;
+            } catch (InterruptedException excp) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Body of the writer thread: print queued chunks in order. */
+    private void drain() {
+        while (true) {
+            String chunk;
+            try {
+                chunk = _pending.take();
+            } catch (InterruptedException excp) {
+                return;
+            }
+            if (chunk == FLUSH) {
+                _out.flush();
+                _flushed.release();
+            } else {
+                _out.print(chunk);
+            }
+        }
+    }
+
+    /** Number of buffered characters at which records are handed off. */
+    private static final int CHUNK = 1 << 15;
+
+    /** Number of chunks that may await printing. */
+    private static final int QUEUE_LENGTH = 16;
+
+    /** Line terminator for records. */
+    private static final String NEWLINE = System.lineSeparator();
+
+    /** Queue marker asking the writer to flush and report back. */
+    private static final String FLUSH = new String("flush");
+
+    /** Destination of records. */
+    private final PrintStream _out;
+
+    /** Records not yet handed to the writer. */
+    private final StringBuilder _buffer;
+
+    /** Chunks awaiting the writer. */
+    private final BlockingQueue<String> _pending;
+
+    /** Released by the writer each time it completes a flush. */
+    private final Semaphore _flushed;
+
+}
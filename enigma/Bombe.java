@@ -0,0 +1,363 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** A known-plaintext attack in the manner of the Turing-Welchman Bombe.
+ *  A crib (a guess at some of the plaintext) placed against the
+ *  ciphertext gives a menu: a graph on the letters with an edge from
+ *  each crib letter to the cipher letter below it, labelled with its
+ *  position.  For each order of rotors and each starting position, the
+ *  Bombe supposes a plugboard partner for the menu's best-connected
+ *  letter and follows the consequences along the menu's edges (and,
+ *  since plugboard pairs are symmetric, along Welchman's diagonal).  A
+ *  supposition that gives some letter two partners is impossible;
+ *  those that survive are stops, to be tried by hand.  All rings are
+ *  taken to be at A.
+ *  @author Smit Malde
+ */
+class Bombe {
+
+    /** Search for the settings of machines specified by the
+     *  configuration file named ARGS[0] under which the crib ARGS[2]
+     *  enciphers to the ciphertext ARGS[1], starting at the character of
+     *  ARGS[1] given by --offset (default 0).  --threads gives the
+     *  number of rotor orders tried at once (default: one per
+     *  processor).  Prints each stop as a setting line for Main, and
+     *  then a summary of the work done on the standard error. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--threads=(\\d+) --offset=(\\d+) "
+                                + "--=(.*){3}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.Bombe [--threads=N] "
+                            + "[--offset=N] CONFIG CIPHERTEXT CRIB");
+            }
+            int threads = Runtime.getRuntime().availableProcessors();
+            if (options.contains("--threads")) {
+                threads = Integer.parseInt(options.getFirst("--threads"));
+            }
+            int offset = 0;
+            if (options.contains("--offset")) {
+                offset = Integer.parseInt(options.getFirst("--offset"));
+            }
+            List<String> files = options.get("--");
+            Bombe bombe = new Bombe(Main.readConfig(files.get(0)),
+                                    files.get(1), files.get(2), offset);
+            for (MachineState stop : bombe.run(threads)) {
+                System.out.println(bombe.settingLine(stop));
+            }
+            System.err.println(bombe.stats());
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A Bombe for machines specified by SPEC, looking for settings under
+     *  which CRIB enciphers to the characters of CIPHERTEXT starting at
+     *  character OFFSET.  Blanks in CIPHERTEXT and CRIB are ignored. */
+    Bombe(MachineSpec spec, String ciphertext, String crib, int offset) {
+        _spec = spec;
+        Alphabet alpha = spec.alphabet();
+        String cipher = ciphertext.replace(" ", "");
+        String plain = crib.replace(" ", "");
+        if (offset < 0 || plain.isEmpty()
+            || offset + plain.length() > cipher.length()) {
+            throw error("crib does not fit in the ciphertext");
+        }
+        _offset = offset;
+        _menu = new int[plain.length()][2];
+        for (int i = 0; i < plain.length(); i += 1) {
+            char p = plain.charAt(i), c = cipher.charAt(offset + i);
+            if (!alpha.contains(p) || !alpha.contains(c)) {
+                throw error("crib or ciphertext not in alphabet at %d", i);
+            }
+            if (p == c) {
+                throw error("crib letter %c enciphers to itself at %d",
+                            p, i);
+            }
+            _menu[i][0] = alpha.toInt(p);
+            _menu[i][1] = alpha.toInt(c);
+        }
+        _edges = new int[alpha.size()][];
+        int[] degree = new int[alpha.size()];
+        for (int[] edge : _menu) {
+            degree[edge[0]] += 1;
+            degree[edge[1]] += 1;
+        }
+        int test = 0;
+        for (int x = 0; x < degree.length; x += 1) {
+            _edges[x] = new int[degree[x]];
+            if (degree[x] > degree[test]) {
+                test = x;
+            }
+        }
+        _test = test;
+        for (int i = 0; i < _menu.length; i += 1) {
+            int a = _menu[i][0], b = _menu[i][1];
+            degree[a] -= 1;
+            _edges[a][degree[a]] = i;
+            degree[b] -= 1;
+            _edges[b][degree[b]] = i;
+        }
+        _orders = rotorOrders(spec);
+    }
+
+    /** Try every rotor order and starting position, using THREADS
+     *  threads, and return the stops found, in order of rotor order and
+     *  then starting position.  Each stop has the plugboard pairs
+     *  deduced from the menu. */
+    List<MachineState> run(int threads) {
+        if (threads < 1) {
+            throw error("need at least one thread");
+        }
+        _positions.set(0);
+        _start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Future<List<MachineState>>> results =
+                new ArrayList<Future<List<MachineState>>>();
+            for (String[] order : _orders) {
+                results.add(pool.submit(() -> search(order)));
+            }
+            ArrayList<MachineState> stops = new ArrayList<MachineState>();
+            for (Future<List<MachineState>> result : results) {
+                stops.addAll(result.get());
+            }
+            _stops = stops.size();
+            return stops;
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("search failed: %s", excp.getCause());
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        } finally {
+            _time = System.nanoTime() - _start;
+            pool.shutdownNow();
+        }
+    }
+
+    /** Return the stops for the rotors named ORDER, trying each starting
+     *  position in turn on a machine of my own. */
+    private List<MachineState> search(String[] order) {
+        Machine machine = _spec.newMachine();
+        machine.insertRotors(order);
+        int n = _spec.alphabet().size();
+        int[] setting = new int[order.length - 1];
+        int[][] scramblers = new int[_menu.length][n];
+        int[] partner = new int[n], stack = new int[n];
+        ArrayList<MachineState> stops = new ArrayList<MachineState>();
+        long positions = 0;
+        do {
+            machine.setRotors(setting);
+            machine.advance(_offset + 1);
+            for (int i = 0; i < _menu.length; i += 1) {
+                if (i > 0) {
+                    machine.advance(1);
+                }
+                machine.scrambler(scramblers[i]);
+            }
+            for (int h = 0; h < n; h += 1) {
+                if (consistent(scramblers, h, partner, stack)) {
+                    stops.add(stop(order, setting, partner));
+                }
+            }
+            positions += 1;
+        } while (nextSetting(setting, n));
+        _positions.addAndGet(positions);
+        return stops;
+    }
+
+    /** Return true iff supposing that the test letter is plugged to H
+     *  leads to no contradiction, given the conversions SCRAMBLERS[i]
+     *  by the unplugged rotors at each position I of the crib.  Leaves
+     *  in PARTNER the plugboard partner deduced for each letter, or -1.
+     *  STACK is scratch space for as many letters as the alphabet has. */
+    private boolean consistent(int[][] scramblers, int h, int[] partner,
+                               int[] stack) {
+        Arrays.fill(partner, -1);
+        int top = plug(_test, h, partner, stack, 0);
+        while (top > 0) {
+            int x = stack[--top], v = partner[x];
+            for (int i : _edges[x]) {
+                int y = _menu[i][0] == x ? _menu[i][1] : _menu[i][0];
+                top = plug(y, scramblers[i][v], partner, stack, top);
+                if (top < 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Record in PARTNER that letters Y and W are plugged together,
+     *  pushing any letters newly given partners onto STACK, which has
+     *  TOP entries.  Returns the new number of entries, or -1 if either
+     *  letter already has another partner. */
+    private static int plug(int y, int w, int[] partner, int[] stack,
+                            int top) {
+        if (partner[y] == -1 && partner[w] == -1) {
+            partner[y] = w;
+            partner[w] = y;
+            stack[top++] = y;
+            if (w != y) {
+                stack[top++] = w;
+            }
+            return top;
+        }
+        return partner[y] == w ? top : -1;
+    }
+
+    /** Return the state of a machine with rotors ORDER at settings
+     *  SETTING (after the reflector), whose plugboard pairs each letter
+     *  with its PARTNER where that is known. */
+    private MachineState stop(String[] order, int[] setting,
+                              int[] partner) {
+        int[] plugboard = new int[partner.length];
+        for (int x = 0; x < partner.length; x += 1) {
+            plugboard[x] = partner[x] < 0 ? x : partner[x];
+        }
+        int[] settings = new int[order.length];
+        System.arraycopy(setting, 0, settings, 1, setting.length);
+        return new MachineState(order, settings, new int[order.length],
+                                new Permutation(plugboard,
+                                                _spec.alphabet()));
+    }
+
+    /** Return STOP as a setting line that Main would accept. */
+    String settingLine(MachineState stop) {
+        return stop.settingLine(_spec.alphabet());
+    }
+
+    /** Step SETTING, a setting of each rotor after the reflector, to the
+     *  next in order, where each rotor has N settings, the rightmost
+     *  changing fastest.  Returns false after the last. */
+    static boolean nextSetting(int[] setting, int n) {
+        for (int k = setting.length - 1; k >= 0; k -= 1) {
+            setting[k] += 1;
+            if (setting[k] < n) {
+                return true;
+            }
+            setting[k] = 0;
+        }
+        return false;
+    }
+
+    /** Return every legal order of distinct rotors from SPEC: a
+     *  reflector, then fixed rotors, then moving rotors, one in each
+     *  slot. */
+    static List<String[]> rotorOrders(MachineSpec spec) {
+        ArrayList<String> reflectors = new ArrayList<String>(),
+            fixed = new ArrayList<String>(), moving = new ArrayList<String>();
+        ArrayList<String> names = new ArrayList<String>(spec.rotorNames());
+        Collections.sort(names);
+        for (String name : names) {
+            Rotor r = spec.newRotor(name);
+            if (r.reflecting()) {
+                reflectors.add(name);
+            } else if (r.rotates()) {
+                moving.add(name);
+            } else {
+                fixed.add(name);
+            }
+        }
+        ArrayList<String[]> orders = new ArrayList<String[]>();
+        int slots = spec.numRotors(), first = slots - spec.numPawls();
+        String[] order = new String[slots];
+        for (String reflector : reflectors) {
+            order[0] = reflector;
+            addOrders(order, 1, first, fixed, moving, orders);
+        }
+        return orders;
+    }
+
+    /** Add to ORDERS each way of completing ORDER from slot K, using
+     *  distinct rotors from FIXED before slot FIRST and from MOVING at
+     *  and after it. */
+    private static void addOrders(String[] order, int k, int first,
+                                  List<String> fixed, List<String> moving,
+                                  List<String[]> orders) {
+        if (k == order.length) {
+            orders.add(order.clone());
+            return;
+        }
+        List<String> choices = k < first ? fixed : moving;
+        for (String name : choices) {
+            boolean used = false;
+            for (int j = 1; j < k; j += 1) {
+                used |= order[j].equals(name);
+            }
+            if (!used) {
+                order[k] = name;
+                addOrders(order, k + 1, first, fixed, moving, orders);
+            }
+        }
+    }
+
+    /** Return the number of rotor orders I try. */
+    int numOrders() {
+        return _orders.size();
+    }
+
+    /** Return the number of rotor orders and starting positions tried
+     *  so far. */
+    long positions() {
+        return _positions.get();
+    }
+
+    /** Return a summary of the work done by the last run(). */
+    String stats() {
+        double seconds = _time / 1e9;
+        return String.format("%d rotor orders, %d positions, %d stops "
+                             + "in %.2f s (%.0f positions/s)",
+                             numOrders(), positions(), _stops, seconds,
+                             positions() / Math.max(seconds, 1e-9));
+    }
+
+    /** Specification of the machines searched. */
+    private final MachineSpec _spec;
+
+    /** Position in the ciphertext of the first crib letter. */
+    private final int _offset;
+
+    /** The crib and cipher letter (as indices) at each crib position. */
+    private final int[][] _menu;
+
+    /** The crib positions (indices into _menu) at which each letter
+     *  appears. */
+    private final int[][] _edges;
+
+    /** The best-connected letter of the menu, whose partner is
+     *  supposed. */
+    private final int _test;
+
+    /** The rotor orders tried. */
+    private final List<String[]> _orders;
+
+    /** Number of starting positions tried. */
+    private final AtomicLong _positions = new AtomicLong();
+
+    /** Number of stops found by the last run. */
+    private int _stops;
+
+    /** Time of the start of the last run, and then its length, in
+     *  nanoseconds. */
+    private long _start, _time;
+
+}
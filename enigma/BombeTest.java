@@ -0,0 +1,63 @@
+package enigma;
+
+import java.util.List;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Bombe class.
+ *  @author Smit Malde
+ */
+public class BombeTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTS ***** */
+
+    private static final Alphabet AZ = new Alphabet(TestUtils.UPPER_STRING);
+
+    /** A specification for machines with reflector B and three of the
+     *  naval rotors I, II, and III. */
+    private static MachineSpec spec() {
+        return TestUtils.navalSpec(AZ, 4, 3, new String[] { "B" },
+                                   new String[0],
+                                   new String[] { "I", "II", "III" },
+                                   new String[] { "Q", "E", "V" });
+    }
+
+    @Test
+    public void testFindsKey() {
+        MachineSpec spec = spec();
+        Machine mach = spec.newMachine();
+        mach.insertRotors(new String[] { "B", "III", "I", "II" });
+        mach.setRotors("QDV");
+        mach.setPlugboard(new Permutation("(AT) (EK) (RZ) (WO)", AZ));
+        String plain = "WETTERVORHERSAGEBISKAYA";
+        String cipher = mach.convert("XXXXX" + plain);
+
+        Bombe bombe = new Bombe(spec, cipher, plain, 5);
+        assertEquals(6, bombe.numOrders());
+        List<MachineState> stops = bombe.run(2);
+        assertEquals(6 * 26 * 26 * 26, bombe.positions());
+        boolean found = false;
+        for (MachineState stop : stops) {
+            String line = bombe.settingLine(stop);
+            if (line.startsWith("* B III I II QDV ")) {
+                found = true;
+                assertTrue(line, line.contains("(AT)"));
+                assertTrue(line, line.contains("(EK)"));
+                assertTrue(line, line.contains("(RZ)"));
+            }
+        }
+        assertTrue("true setting not among stops", found);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testSelfEncipherment() {
+        new Bombe(spec(), "ABCDE", "XBQ", 0);
+    }
+
+}
@@ -0,0 +1,230 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/** Compiled machine configurations.  An image holds everything in a
+ *  configuration file in a form that can be used without parsing: the
+ *  alphabet, and for each rotor its kind, name, notches (as a bitmap
+ *  over the alphabet), and forward and inverse permutation tables.
+ *  Images are read by mapping them into memory.
+ *
+ *  An image is a 16-byte header followed by a payload, all big-endian.
+ *  The header holds MAGIC, VERSION, the CRC-32 of the payload, and the
+ *  payload's length.  The payload holds the alphabet (a count and its
+ *  characters), the numbers of rotor slots and pawls, a count of
+ *  rotors, and then for each rotor its kind (MOVING, FIXED, or
+ *  REFLECTOR), its name (a count and characters), its notch bitmap, and
+ *  its forward and inverse tables (one int per character each).
+ *  @author Smit Malde
+ */
+class ConfigImage {
+
+    /** Not instantiable. */
+    private ConfigImage() {
+    }
+
+    /** Return true iff the file named NAME starts like an image. */
+    static boolean isImage(String name) {
+        try (FileChannel in = FileChannel.open(Paths.get(name))) {
+            ByteBuffer start = ByteBuffer.allocate(4);
+            while (start.hasRemaining() && in.read(start) >= 0) {
+                continue;
+            }
+            return !start.hasRemaining() && start.getInt(0) == MAGIC;
+        } catch (IOException | InvalidPathException excp) {
+            return false;
+        }
+    }
+
+    /** Write an image of SPEC to the file named NAME. */
+    static void write(MachineSpec spec, String name) {
+        Alphabet alpha = spec.alphabet();
+        int n = alpha.size();
+        ArrayList<Rotor> rotors = new ArrayList<Rotor>();
+        int size = 4 + 2 * n + 3 * 4;
+        for (String rotorName : spec.rotorNames()) {
+            Rotor rotor = spec.newRotor(rotorName);
+            rotors.add(rotor);
+            size += 1 + 4 + 2 * rotorName.length() + bitmapSize(n) + 8 * n;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(size);
+        putString(payload, alpha.toString());
+        payload.putInt(spec.numRotors()).putInt(spec.numPawls());
+        payload.putInt(rotors.size());
+        for (Rotor rotor : rotors) {
+            payload.put(rotor.reflecting() ? REFLECTOR
+                        : rotor.rotates() ? MOVING : FIXED);
+            putString(payload, rotor.name());
+            byte[] bitmap = new byte[bitmapSize(n)];
+            for (int p = 0; p < n; p += 1) {
+                if (rotor.notchAt(p)) {
+                    bitmap[p / 8] |= 1 << (p % 8);
+                }
+            }
+            payload.put(bitmap);
+            Permutation perm = rotor.permutation();
+            for (int p = 0; p < n; p += 1) {
+                payload.putInt(perm.permute(p));
+            }
+            for (int c = 0; c < n; c += 1) {
+                payload.putInt(perm.invert(c));
+            }
+        }
+        payload.flip();
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt((int) crc.getValue())
+            .putInt(size).flip();
+        try (FileChannel out =
+             FileChannel.open(path(name), StandardOpenOption.CREATE,
+                              StandardOpenOption.WRITE,
+                              StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining() || payload.hasRemaining()) {
+                out.write(new ByteBuffer[] { header, payload });
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", name);
+        }
+    }
+
+    /** Return the specification in the image file named NAME. */
+    static MachineSpec read(String name) {
+        long start = System.nanoTime();
+        MappedByteBuffer image;
+        try (FileChannel in = FileChannel.open(path(name))) {
+            image = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+        try {
+            if (image.getInt() != MAGIC) {
+                throw error("%s is not a configuration image", name);
+            }
+            int version = image.getInt();
+            if (version != VERSION) {
+                throw error("%s has image version %d, not %d", name,
+                            version, VERSION);
+            }
+            int checksum = image.getInt(), length = image.getInt();
+            if (length != image.remaining()) {
+                throw error("%s is truncated", name);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(image.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                throw error("%s is corrupt (bad checksum)", name);
+            }
+            return readPayload(image);
+        } catch (BufferUnderflowException excp) {
+            throw error("%s is truncated", name);
+        } finally {
+            Metrics.get().configParse().record(start);
+        }
+    }
+
+    /** Return the specification in PAYLOAD, an image after its
+     *  header. */
+    private static MachineSpec readPayload(ByteBuffer payload) {
+        Alphabet alpha = new Alphabet(getString(payload));
+        int n = alpha.size();
+        int numRotors = payload.getInt(), numPawls = payload.getInt();
+        int count = payload.getInt();
+        ArrayList<Rotor> rotors = new ArrayList<Rotor>(count);
+        byte[] bitmap = new byte[bitmapSize(n)];
+        int[] forward = new int[n];
+        for (int r = 0; r < count; r += 1) {
+            byte kind = payload.get();
+            String name = getString(payload);
+            payload.get(bitmap);
+            payload.asIntBuffer().get(forward);
+            payload.position(payload.position() + 4 * n);
+            Permutation perm = new Permutation(forward, alpha);
+            for (int c = 0; c < n; c += 1) {
+                if (payload.getInt() != perm.invert(c)) {
+                    throw error("inverse table of rotor %s is wrong", name);
+                }
+            }
+            switch (kind) {
+            case MOVING:
+                StringBuilder notches = new StringBuilder();
+                for (int p = 0; p < n; p += 1) {
+                    if ((bitmap[p / 8] & (1 << (p % 8))) != 0) {
+                        notches.append(alpha.toChar(p));
+                    }
+                }
+                rotors.add(new MovingRotor(name, perm, notches.toString()));
+                break;
+            case FIXED:
+                rotors.add(new FixedRotor(name, perm));
+                break;
+            case REFLECTOR:
+                rotors.add(new Reflector(name, perm));
+                break;
+            default:
+                throw error("rotor %s has unknown kind %d", name, kind);
+            }
+        }
+        return new MachineSpec(alpha, numRotors, numPawls, rotors);
+    }
+
+    /** Return the path named NAME. */
+    private static Path path(String name) {
+        try {
+            return Paths.get(name);
+        } catch (InvalidPathException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Put S into BUF as a count and its characters. */
+    private static void putString(ByteBuffer buf, String s) {
+        buf.putInt(s.length());
+        for (int i = 0; i < s.length(); i += 1) {
+            buf.putChar(s.charAt(i));
+        }
+    }
+
+    /** Return a string read from BUF as put there by putString. */
+    private static String getString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0 || 2L * length > buf.remaining()) {
+            throw error("bad string length in image");
+        }
+        char[] chars = new char[length];
+        buf.asCharBuffer().get(chars);
+        buf.position(buf.position() + 2 * length);
+        return new String(chars);
+    }
+
+    /** Return the number of bytes in a bitmap over N characters. */
+    private static int bitmapSize(int n) {
+        return (n + 7) / 8;
+    }
+
+    /** First four bytes of every image: 0x89 and then "ENG", which no
+     *  text configuration starts with. */
+    static final int MAGIC = 0x89454e47;
+
+    /** Version of the image format written. */
+    static final int VERSION = 1;
+
+    /** Bytes in the header. */
+    private static final int HEADER_SIZE = 16;
+
+    /** Rotor kinds. */
+    private static final byte MOVING = 0, FIXED = 1, REFLECTOR = 2;
+
+}
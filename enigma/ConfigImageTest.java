@@ -0,0 +1,80 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the ConfigImage class.
+ *  @author Smit Malde
+ */
+public class ConfigImageTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    private static final Alphabet AZ = new Alphabet(TestUtils.UPPER_STRING);
+
+    /** A specification with the naval reflector B, fixed rotor Beta, and
+     *  moving rotors I, III, and IV. */
+    private static MachineSpec spec() {
+        return TestUtils.navalSpec(AZ, 5, 3, new String[] { "B" },
+                                   new String[] { "Beta" },
+                                   new String[] { "I", "III", "IV" },
+                                   new String[] { "Q", "V", "J" });
+    }
+
+    /** Return the conversion of the usual test message by a machine of
+     *  SPEC. */
+    private static String convert(MachineSpec spec) {
+        Machine mach = spec.newMachine();
+        mach.insertRotors(new String[] { "B", "Beta", "III", "IV", "I" });
+        mach.setRotors("AXLE");
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        return mach.convert("FROMHISSHOULDERHIAWATHA");
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File image = File.createTempFile("enigma", ".img");
+        try {
+            ConfigImage.write(spec(), image.getPath());
+            assertTrue(ConfigImage.isImage(image.getPath()));
+            MachineSpec copy = ConfigImage.read(image.getPath());
+            assertEquals(AZ.toString(), copy.alphabet().toString());
+            assertEquals(5, copy.numRotors());
+            assertEquals(3, copy.numPawls());
+            assertEquals(spec().rotorNames(), copy.rotorNames());
+            assertEquals("QVPQSOKOILPUBKJZPISFXDW", convert(copy));
+        } finally {
+            image.delete();
+        }
+    }
+
+    @Test
+    public void testCorruptImage() throws IOException {
+        File image = File.createTempFile("enigma", ".img");
+        try {
+            ConfigImage.write(spec(), image.getPath());
+            try (RandomAccessFile file = new RandomAccessFile(image, "rw")) {
+                file.seek(file.length() - 1);
+                int last = file.read();
+                file.seek(file.length() - 1);
+                file.write(last ^ 1);
+            }
+            ConfigImage.read(image.getPath());
+            fail("corrupt image accepted");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("checksum"));
+        } finally {
+            image.delete();
+        }
+    }
+
+}
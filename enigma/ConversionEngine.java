@@ -0,0 +1,126 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** A way for a Machine to convert runs of characters.  Every engine
+ *  converts exactly as Machine.convert(int) does, character by
+ *  character; they differ in what they compute ahead of time.  The
+ *  reference engine builds nothing and computes each rotor's conversion
+ *  from its permutation.  The table engine converts through tables
+ *  built for each rotor and ring setting.  The keystream engine builds
+ *  the machine's whole cycle of substitutions once and then converts
+ *  each character with one lookup.  Machines do not use their engine
+ *  while tracing.
+ *  @author Smit Malde
+ */
+interface ConversionEngine {
+
+    /** The engine that computes each conversion from the rotors'
+     *  permutations. */
+    ConversionEngine REFERENCE = new ReferenceEngine();
+
+    /** The engine that converts through precomputed rotor tables. */
+    ConversionEngine TABLE = new TableEngine();
+
+    /** Name of the system property giving the engine to use when
+     *  --engine is not given. */
+    String PROPERTY = "enigma.engine";
+
+    /** Most bytes converted as ints at once by convert(Machine, byte[],
+     *  int, int). */
+    int BYTE_RUN = 1 << 12;
+
+    /** Mask extracting an unsigned value from a byte. */
+    int BYTE_MASK = 0xff;
+
+    /** Return my name, as accepted by named. */
+    String name();
+
+    /** Return true iff the rotors of machines using me should convert
+     *  through precomputed tables. */
+    boolean tableDriven();
+
+    /** Convert in place the LEN alphabet indices in MSG starting at OFF
+     *  with M, which is not tracing, advancing M's rotors as
+     *  M.convert(int) would for each. */
+    void convert(Machine m, int[] msg, int off, int len);
+
+    /** Convert in place the LEN alphabet indices in MSG starting at OFF,
+     *  each stored as an unsigned byte, with M, as for convert(M, int[],
+     *  int, int).  M's alphabet may have at most 256 characters.  By
+     *  default, the bytes are converted as ints in runs of at most
+     *  BYTE_RUN. */
+    default void convert(Machine m, byte[] msg, int off, int len) {
+        int n = m.alphabet().size();
+        int[] indices = new int[Math.min(len, BYTE_RUN)];
+        for (int start = off, end = off + len; start < end;) {
+            int count = Math.min(end - start, indices.length);
+            for (int k = 0; k < count; k++) {
+                int c = msg[start + k] & BYTE_MASK;
+                if (c >= n) {
+                    throw new EnigmaException(c + " is out of range");
+                }
+                indices[k] = c;
+            }
+            convert(m, indices, 0, count);
+            for (int k = 0; k < count; k++) {
+                msg[start + k] = (byte) indices[k];
+            }
+            start += count;
+        }
+    }
+
+    /** Return the engine named NAME: "reference", "table", or
+     *  "keystream".  Each keystream engine is new. */
+    static ConversionEngine named(String name) {
+        switch (name) {
+        case "reference":
+            return REFERENCE;
+        case "table":
+            return TABLE;
+        case "keystream":
+            return new KeystreamEngine();
+        default:
+            throw error("unknown engine %s", name);
+        }
+    }
+
+    /** Return the engine best suited to converting at most LENGTH
+     *  characters under one key (or an unknown number, if LENGTH is
+     *  negative) with machines of SPEC, when about MEMORY bytes are
+     *  free.  Jobs shorter than the work of building the rotors'
+     *  tables, or whose tables would not fit, get the reference engine.
+     *  Jobs long enough to repay building the substitution at every
+     *  rotor position, which fits, get the keystream engine.  All
+     *  others get the table engine. */
+    static ConversionEngine select(MachineSpec spec, long length,
+                                   long memory) {
+        long n = spec.alphabet().size();
+        long tableInts = 2 * n * n * spec.numRotors();
+        if (length >= 0 && length < tableInts
+            || tableInts * Integer.BYTES > memory / 2) {
+            return REFERENCE;
+        }
+        long states = KeystreamEngine.states(spec);
+        if (length >= 0 && states <= length / n
+            && states * KeystreamEngine.bytesPerState(spec) <= memory / 2) {
+            return new KeystreamEngine();
+        }
+        return TABLE;
+    }
+
+    /** Return the engine named NAME, or if NAME is "auto", the engine
+     *  chosen by select for LENGTH characters under one key with
+     *  machines of SPEC in the memory this process has free. */
+    static ConversionEngine choose(String name, MachineSpec spec,
+                                   long length) {
+        if (!name.equals("auto")) {
+            return named(name);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long free = runtime.maxMemory()
+            - (runtime.totalMemory() - runtime.freeMemory());
+        return select(spec, length, free);
+    }
+
+}
@@ -0,0 +1,266 @@
+package enigma;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the ConversionEngine classes.
+ *  @author Smit Malde
+ */
+public class ConversionEngineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTS ***** */
+
+    private static final Alphabet AZ = new Alphabet(TestUtils.UPPER_STRING);
+
+    private static final String[] MOVING = {
+        "I", "II", "III", "IV", "V", "VI", "VII", "VIII"
+    };
+
+    private static final String[] NOTCHES = {
+        "Q", "E", "V", "J", "Z", "ZM", "ZM", "ZM"
+    };
+
+    /** Return a specification with all the naval rotors, with 5 slots
+     *  and 3 pawls. */
+    private static MachineSpec spec() {
+        return TestUtils.navalSpec(AZ, 5, 3, new String[] { "B", "C" },
+                                   new String[] { "Beta", "Gamma" },
+                                   MOVING, NOTCHES);
+    }
+
+    /** Return a random setting line for the naval rotors drawn from
+     *  RANDOM. */
+    private static String setting(Random random) {
+        ArrayList<String> moving =
+            new ArrayList<String>(Arrays.asList(MOVING));
+        StringBuilder line = new StringBuilder("* ");
+        line.append(random.nextBoolean() ? "B " : "C ");
+        line.append(random.nextBoolean() ? "Beta" : "Gamma");
+        for (int k = 0; k < 3; k += 1) {
+            line.append(' ')
+                .append(moving.remove(random.nextInt(moving.size())));
+        }
+        line.append(' ');
+        for (int k = 0; k < 4; k += 1) {
+            line.append(AZ.toChar(random.nextInt(26)));
+        }
+        line.append(' ');
+        for (int k = 0; k < 4; k += 1) {
+            line.append(AZ.toChar(random.nextInt(26)));
+        }
+        ArrayList<Character> free = new ArrayList<Character>();
+        for (int c = 0; c < 26; c += 1) {
+            free.add(AZ.toChar(c));
+        }
+        for (int k = random.nextInt(7); k > 0; k -= 1) {
+            char a = free.remove(random.nextInt(free.size()));
+            char b = free.remove(random.nextInt(free.size()));
+            line.append(" (").append(a).append(b).append(')');
+        }
+        return line.toString();
+    }
+
+    /** Return a random message of LEN characters of A-Z drawn from
+     *  RANDOM. */
+    private static String message(int len, Random random) {
+        char[] msg = new char[len];
+        for (int i = 0; i < len; i += 1) {
+            msg[i] = AZ.toChar(random.nextInt(26));
+        }
+        return new String(msg);
+    }
+
+    /** Return a machine of SPEC converting with ENGINE. */
+    private static Machine machine(MachineSpec spec,
+                                   ConversionEngine engine) {
+        Machine result = spec.newMachine();
+        result.setEngine(engine);
+        return result;
+    }
+
+    @Test
+    public void testMatchesReference() {
+        MachineSpec spec = spec();
+        Random random = new Random(25);
+        Machine[] machs = {
+            machine(spec, ConversionEngine.REFERENCE),
+            machine(spec, ConversionEngine.TABLE),
+            machine(spec, ConversionEngine.named("keystream")),
+        };
+        for (int key = 0; key < 12; key += 1) {
+            String setting = setting(random);
+            machs[2].setEngine(ConversionEngine.named("keystream"));
+            for (Machine mach : machs) {
+                Main.setUp(mach, setting);
+            }
+            for (int m = 0; m < 4; m += 1) {
+                String msg = message(random.nextInt(key % 4 == 0 ? 30000
+                                                    : 300), random);
+                String expected = machs[0].convert(msg);
+                for (int k = 1; k < machs.length; k += 1) {
+                    assertEquals(setting + " with "
+                                 + machs[k].engine().name(),
+                                 expected, machs[k].convert(msg));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIndices() {
+        MachineSpec spec = spec();
+        String setting = "* B Beta VI VII VIII QRST AXLE (HQ) (EX) (IP)";
+        Random random = new Random(7);
+        int[] msg = new int[40000];
+        for (int i = 0; i < msg.length; i += 1) {
+            msg[i] = random.nextInt(28) - 1;
+        }
+        Machine ref = machine(spec, ConversionEngine.REFERENCE);
+        Main.setUp(ref, setting);
+        int[] expected = msg.clone();
+        ref.convert(expected, 0, expected.length);
+        for (String name : new String[] { "table", "keystream" }) {
+            Machine mach = machine(spec, ConversionEngine.named(name));
+            Main.setUp(mach, setting);
+            int[] result = msg.clone();
+            mach.convert(result, 0, 7);
+            mach.convert(result, 7, result.length - 7);
+            assertEquals(name, Arrays.toString(expected),
+                         Arrays.toString(result));
+            assertEquals(name, ref.state().toString(),
+                         mach.state().toString());
+        }
+    }
+
+    @Test
+    public void testBytes() {
+        MachineSpec spec = spec();
+        String setting = "* C Gamma I IV V BCDE FGHI (AZ)";
+        byte[] msg = new byte[20000];
+        for (int i = 0; i < msg.length; i += 1) {
+            msg[i] = (byte) (i * 7 % 26);
+        }
+        Machine ref = machine(spec, ConversionEngine.REFERENCE);
+        Main.setUp(ref, setting);
+        byte[] expected = msg.clone();
+        ref.convert(expected, 0, expected.length);
+        for (String name : new String[] { "table", "keystream" }) {
+            Machine mach = machine(spec, ConversionEngine.named(name));
+            Main.setUp(mach, setting);
+            byte[] result = msg.clone();
+            mach.convert(result, 0, result.length);
+            assertEquals(name, Arrays.toString(expected),
+                         Arrays.toString(result));
+            try {
+                mach.convert(new byte[] { 26 }, 0, 1);
+                fail(name + " converted a byte out of range");
+            } catch (EnigmaException excp) {
+                assertEquals("26 is out of range", excp.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testSharedKeystream() {
+        MachineSpec spec = spec();
+        ConversionEngine keystream = ConversionEngine.named("keystream");
+        Random random = new Random(11);
+        String first = setting(random), second = setting(random);
+        String msg = message(1000, random);
+        Machine ref = machine(spec, ConversionEngine.REFERENCE);
+        Machine mach = machine(spec, keystream);
+        Machine other = machine(spec, keystream);
+        for (int round = 0; round < 3; round += 1) {
+            Main.setUp(ref, first);
+            Main.setUp(mach, first);
+            Main.setUp(other, second);
+            assertEquals(ref.convert(msg), mach.convert(msg));
+            Main.setUp(ref, second);
+            assertEquals(ref.convert(msg), other.convert(msg));
+        }
+    }
+
+    @Test
+    public void testSteadyStateAllocation() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean) threads;
+        long thread = Thread.currentThread().getId();
+        char[] msg = message(20, new Random(3)).toCharArray(),
+            out = new char[msg.length];
+        for (String name : new String[] { "reference", "table",
+                                          "keystream" }) {
+            Machine mach = machine(spec(), ConversionEngine.named(name));
+            Main.setUp(mach, "* B Beta III IV I AXLE (HQ) (EX)");
+            int calls = 100000;
+            for (int i = 0; i < calls; i += 1) {
+                mach.convert(msg, 0, msg.length, out, 0);
+            }
+            long before = bean.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < calls; i += 1) {
+                mach.convert(msg, 0, msg.length, out, 0);
+            }
+            long allocated = bean.getThreadAllocatedBytes(thread) - before;
+            assertTrue(name + " allocated " + allocated + " bytes",
+                       allocated < calls);
+        }
+    }
+
+    @Test
+    public void testEngines() {
+        assertSame(ConversionEngine.REFERENCE,
+                   ConversionEngine.named("reference"));
+        assertSame(ConversionEngine.TABLE, ConversionEngine.named("table"));
+        assertEquals("keystream",
+                     ConversionEngine.named("keystream").name());
+        try {
+            ConversionEngine.named("fast");
+            fail("unknown engine accepted");
+        } catch (EnigmaException excp) {
+            assertEquals("unknown engine fast", excp.getMessage());
+        }
+        Machine mach = spec().newMachine();
+        assertSame(ConversionEngine.TABLE, mach.engine());
+        mach.setTableDriven(false);
+        assertSame(ConversionEngine.REFERENCE, mach.engine());
+        assertFalse(mach.tableDriven());
+        mach.setEngine(ConversionEngine.named("keystream"));
+        assertTrue(mach.tableDriven());
+        assertSame(mach.engine(), mach.copy().engine());
+    }
+
+    @Test
+    public void testSelect() {
+        MachineSpec spec = spec();
+        long lots = 1L << 30;
+        assertSame(ConversionEngine.REFERENCE,
+                   ConversionEngine.select(spec, 100, lots));
+        assertSame(ConversionEngine.TABLE,
+                   ConversionEngine.select(spec, -1, lots));
+        assertSame(ConversionEngine.TABLE,
+                   ConversionEngine.select(spec, 100000, lots));
+        assertEquals("keystream",
+                     ConversionEngine.select(spec, 1L << 24, lots).name());
+        assertSame(ConversionEngine.TABLE,
+                   ConversionEngine.select(spec, 1L << 24, 100000));
+        assertSame(ConversionEngine.REFERENCE,
+                   ConversionEngine.select(spec, -1, 1000));
+        assertSame(ConversionEngine.TABLE,
+                   ConversionEngine.choose("table", spec, 10));
+    }
+
+}
@@ -13,4 +13,10 @@ class FixedRotor extends Rotor {
         super(name, perm);
     }
 
+    /** Override for copy method. */
+    @Override
+    Rotor copy() {
+        return copyStateTo(new FixedRotor(name(), permutation()));
+    }
+
 }
@@ -0,0 +1,276 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.Arrays;
+
+/** Writes converted messages in groups of five characters, encoded into
+ *  a reusable byte buffer that is written to a channel when full or
+ *  flushed.  Every fifth character of a line is followed by a blank, so
+ *  a line whose length is a multiple of five ends in a blank, as it
+ *  always has.
+ *
+ *  Characters that the encoder turns into a single byte, as it does
+ *  ASCII in the usual character sets, are copied through a table
+ *  computed when I am made.  Any other character is passed to the
+ *  encoder, along with the rest of its line.
+ *  @author Smit Malde
+ */
+class GroupWriter implements Flushable, Closeable {
+
+    /** A writer that keeps its output in memory, encoding with ENCODER,
+     *  until it is taken by toByteArray. */
+    GroupWriter(CharsetEncoder encoder) {
+        this(null, encoder, MIN_SIZE);
+    }
+
+    /** A writer to OUT, encoding with ENCODER, which buffers up to SIZE
+     *  bytes of output.  If OUT is null, the buffer grows as needed
+     *  instead, as for GroupWriter(ENCODER). */
+    GroupWriter(WritableByteChannel out, CharsetEncoder encoder, int size) {
+        _out = out;
+        _encoder = encoder;
+        _bytes = new byte[Math.max(size, MIN_SIZE)];
+        _buffer = ByteBuffer.wrap(_bytes);
+        _single = new int[SINGLE_LIMIT];
+        ByteBuffer one = ByteBuffer.allocate(MIN_SIZE);
+        for (char ch = 0; ch < SINGLE_LIMIT; ch += 1) {
+            one.clear();
+            _encoder.reset();
+            CoderResult result =
+                _encoder.encode(CharBuffer.wrap(new char[] { ch }), one, true);
+            _single[ch] = result.isUnderflow() && one.position() == 1
+                ? one.get(0) & BYTE_MASK : NONE;
+        }
+        _encoder.reset();
+        _newline = NEWLINE.toCharArray();
+        _spaceByte = _single[' '];
+        byte[] newlineBytes = new byte[_newline.length];
+        for (int i = 0; i < _newline.length; i += 1) {
+            if (_single[_newline[i]] == NONE) {
+                newlineBytes = null;
+                break;
+            }
+            newlineBytes[i] = (byte) _single[_newline[i]];
+        }
+        _newlineBytes = newlineBytes;
+    }
+
+    /** Return a new encoder for the same character set as mine, which
+     *  treats malformed and unmappable input as mine does. */
+    CharsetEncoder newEncoder() {
+        return _encoder.charset().newEncoder()
+            .onMalformedInput(_encoder.malformedInputAction())
+            .onUnmappableCharacter(_encoder.unmappableCharacterAction());
+    }
+
+    /** Write the LEN characters of MSG starting at OFF in groups of five,
+     *  followed by a line terminator. */
+    void writeLine(char[] msg, int off, int len) throws IOException {
+        writeGroups(msg, off, len);
+        if (_newlineBytes == null || _pending != null) {
+            encode(_newline, 0, _newline.length);
+            return;
+        }
+        if (_pos + _newlineBytes.length > _bytes.length) {
+            drain();
+        }
+        System.arraycopy(_newlineBytes, 0, _bytes, _pos,
+                         _newlineBytes.length);
+        _pos += _newlineBytes.length;
+    }
+
+    /** Write the LEN characters of MSG starting at OFF in groups of five,
+     *  with no line terminator. */
+    void writeGroups(char[] msg, int off, int len) throws IOException {
+        int end = off + len, group = GROUP;
+        if (_spaceByte == NONE || _pending != null) {
+            slowGroups(msg, off, end, group);
+            return;
+        }
+        byte[] bytes = _bytes;
+        int[] single = _single;
+        int pos = _pos, limit = bytes.length - 1;
+        for (int i = off; i < end; i += 1) {
+            char ch = msg[i];
+            int b = ch < SINGLE_LIMIT ? single[ch] : NONE;
+            if (b == NONE) {
+                _pos = pos;
+                slowGroups(msg, i, end, group);
+                return;
+            }
+            if (pos >= limit) {
+                _pos = pos;
+                drain();
+                bytes = _bytes;
+                pos = _pos;
+                limit = bytes.length - 1;
+            }
+            bytes[pos] = (byte) b;
+            pos += 1;
+            group -= 1;
+            if (group == 0) {
+                bytes[pos] = (byte) _spaceByte;
+                pos += 1;
+                group = GROUP;
+            }
+        }
+        _pos = pos;
+    }
+
+    /** Write the LEN characters of TEXT starting at OFF as they are,
+     *  without grouping. */
+    void write(char[] text, int off, int len) throws IOException {
+        encode(text, off, len);
+    }
+
+    /** Write the LEN bytes of BYTES starting at OFF as they are. */
+    void write(byte[] bytes, int off, int len) throws IOException {
+        while (len > 0) {
+            if (_pos == _bytes.length) {
+                drain();
+            }
+            int n = Math.min(len, _bytes.length - _pos);
+            System.arraycopy(bytes, off, _bytes, _pos, n);
+            _pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Write the characters MSG[START..END-1] in groups, the first
+     *  ending after GROUP more characters, through the encoder. */
+    private void slowGroups(char[] msg, int start, int end, int group)
+        throws IOException {
+        int count = end - start;
+        char[] grouped = new char[count + (count + GROUP - group) / GROUP];
+        int j = 0;
+        for (int i = start; i < end; i += 1) {
+            grouped[j] = msg[i];
+            j += 1;
+            group -= 1;
+            if (group == 0) {
+                grouped[j] = ' ';
+                j += 1;
+                group = GROUP;
+            }
+        }
+        encode(grouped, 0, j);
+    }
+
+    /** Encode the LEN characters of TEXT starting at OFF into my
+     *  buffer.  A high surrogate at the end is held back until the
+     *  next characters arrive, as a Writer would. */
+    private void encode(char[] text, int off, int len) throws IOException {
+        CharBuffer chars;
+        if (_pending != null) {
+            chars = CharBuffer.allocate(len + 1);
+            chars.put(_pending).put(text, off, len).flip();
+            _pending = null;
+        } else {
+            chars = CharBuffer.wrap(text, off, len);
+        }
+        while (true) {
+            _buffer.limit(_bytes.length).position(_pos);
+            CoderResult result = _encoder.encode(chars, _buffer, false);
+            _pos = _buffer.position();
+            if (result.isOverflow()) {
+                drain();
+            } else if (result.isUnderflow()) {
+                if (chars.hasRemaining()) {
+                    _pending = chars.get();
+                }
+                return;
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    /** Return the output of a writer made by GroupWriter(ENCODER) since
+     *  it was made or last asked, and forget it. */
+    byte[] toByteArray() {
+        byte[] result = Arrays.copyOf(_bytes, _pos);
+        _pos = 0;
+        return result;
+    }
+
+    /** Write out my buffer, or if I have no channel, make it larger. */
+    private void drain() throws IOException {
+        if (_out == null) {
+            _bytes = Arrays.copyOf(_bytes, 2 * _bytes.length);
+            _buffer = ByteBuffer.wrap(_bytes);
+            return;
+        }
+        _buffer.limit(_pos).position(0);
+        while (_buffer.hasRemaining()) {
+            _out.write(_buffer);
+        }
+        _pos = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (_out != null) {
+            _out.close();
+        }
+    }
+
+    /** Number of characters in a group. */
+    static final int GROUP = 5;
+
+    /** Characters below this are looked up in _single. */
+    private static final int SINGLE_LIMIT = 128;
+
+    /** Entry of _single for a character that is not one byte. */
+    private static final int NONE = -1;
+
+    /** Smallest buffer, which must hold any one encoded character. */
+    private static final int MIN_SIZE = 16;
+
+    /** Mask extracting an unsigned value from a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Line terminator. */
+    private static final String NEWLINE = System.lineSeparator();
+
+    /** Destination of my output, or null to keep it in memory. */
+    private final WritableByteChannel _out;
+
+    /** Encoder for characters not in _single. */
+    private final CharsetEncoder _encoder;
+
+    /** Encoded output not yet written, in _bytes[0 .. _pos-1]. */
+    private byte[] _bytes;
+    private int _pos;
+
+    /** A view of _bytes for the encoder and the channel. */
+    private ByteBuffer _buffer;
+
+    /** The byte encoding each character below SINGLE_LIMIT, or NONE. */
+    private final int[] _single;
+
+    /** The encoding of a blank, or NONE. */
+    private final int _spaceByte;
+
+    /** The line terminator, and its encoding, or null if it is not one
+     *  byte per character. */
+    private final char[] _newline;
+    private final byte[] _newlineBytes;
+
+    /** High surrogate held back by encode, or null. */
+    private Character _pending;
+
+}
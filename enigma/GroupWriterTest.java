@@ -0,0 +1,88 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the GroupWriter class.
+ *  @author Smit Malde
+ */
+public class GroupWriterTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    private static final String NL = System.lineSeparator();
+
+    /** Return what a GroupWriter with a buffer of SIZE bytes writes for
+     *  the lines LINES, in UTF-8. */
+    private static String writeLines(int size, String... lines)
+        throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GroupWriter out =
+            new GroupWriter(Channels.newChannel(bytes),
+                            StandardCharsets.UTF_8.newEncoder(), size);
+        for (String line : lines) {
+            out.writeLine(line.toCharArray(), 0, line.length());
+        }
+        out.flush();
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testGroups() throws IOException {
+        assertEquals("ABCDE FG" + NL, writeLines(1 << 10, "ABCDEFG"));
+        assertEquals("ABCDE FGHIJ " + NL,
+                     writeLines(1 << 10, "ABCDEFGHIJ"));
+        assertEquals(NL + "A" + NL + NL,
+                     writeLines(1 << 10, "", "A", ""));
+    }
+
+    @Test
+    public void testSmallBuffer() throws IOException {
+        StringBuilder line = new StringBuilder(),
+            expected = new StringBuilder();
+        for (int i = 0; i < 103; i += 1) {
+            char ch = (char) ('A' + i % 26);
+            line.append(ch);
+            expected.append(ch);
+            if (i % 5 == 4) {
+                expected.append(' ');
+            }
+        }
+        expected.append(NL);
+        assertEquals(expected.toString() + expected,
+                     writeLines(1, line.toString(), line.toString()));
+    }
+
+    @Test
+    public void testNonAscii() throws IOException {
+        assertEquals("AB\u00c4\u00d6E \u20acG" + NL,
+                     writeLines(16, "AB\u00c4\u00d6E\u20acG"));
+        assertEquals("A\ud83d\ude00BC DE" + NL,
+                     writeLines(16, "A\ud83d\ude00BCDE"));
+    }
+
+    @Test
+    public void testInMemory() throws IOException {
+        GroupWriter out =
+            new GroupWriter(StandardCharsets.UTF_8.newEncoder());
+        char[] msg = "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+        out.write("OK ".toCharArray(), 0, 3);
+        out.writeGroups(msg, 0, msg.length);
+        assertEquals("OK ABCDE FGHIJ KLMNO PQRST UVWXY Z",
+                     new String(out.toByteArray(), StandardCharsets.UTF_8));
+        out.writeGroups(msg, 0, 5);
+        assertEquals("ABCDE ",
+                     new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+}
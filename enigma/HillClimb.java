@@ -0,0 +1,478 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** A ciphertext-only attack that searches for the key by hill-climbing.
+ *  Every rotor order and starting position is first tried with rings at
+ *  A and an empty plugboard, and scored by the index of coincidence
+ *  of its decryption, which is higher for language than for random
+ *  text.  Each of the best few is then the start of a climb: the ring
+ *  settings of the two fastest rotors are adjusted one at a time, and
+ *  then plugboard pairs are added or exchanged while the score
+ *  improves, by index of coincidence and then, if n-gram counts are
+ *  supplied, by n-gram fitness.  Climbs run in parallel on a
+ *  work-stealing pool and post their results to a shared board that
+ *  keeps the best.
+ *  @author Smit Malde
+ */
+class HillClimb {
+
+    /** Search for the key of the ciphertext in the file ARGS[1] (or the
+     *  standard input), for machines specified by the configuration file
+     *  named ARGS[0].  --restarts gives the number of climbs (default
+     *  RESTARTS), --threads the number of threads (default: one per
+     *  processor), and --ngrams a file of n-gram counts, one "NGRAM
+     *  COUNT" per line.  Prints the best key found as a setting line
+     *  for Main and the decryption it gives, and then a summary of the
+     *  work done on the standard error. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--threads=(\\d+) --restarts=(\\d+) "
+                                + "--ngrams=(.+) --=(.*){1,2}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.HillClimb [--threads=N] "
+                            + "[--restarts=N] [--ngrams=FILE] CONFIG "
+                            + "[CIPHERTEXT]");
+            }
+            int threads = Runtime.getRuntime().availableProcessors();
+            if (options.contains("--threads")) {
+                threads = Integer.parseInt(options.getFirst("--threads"));
+            }
+            int restarts = RESTARTS;
+            if (options.contains("--restarts")) {
+                restarts = Integer.parseInt(options.getFirst("--restarts"));
+            }
+            List<String> files = options.get("--");
+            MachineSpec spec = Main.readConfig(files.get(0));
+            String text = files.size() > 1 ? read(files.get(1)) : read(null);
+            NGrams ngrams = null;
+            if (options.contains("--ngrams")) {
+                ngrams = new NGrams(read(options.getFirst("--ngrams")),
+                                    spec.alphabet());
+            }
+            HillClimb climb = new HillClimb(spec, text, ngrams);
+            Result best = climb.run(threads, restarts);
+            System.out.println(best.state().settingLine(spec.alphabet()));
+            System.out.println(climb.decrypt(best.state()));
+            System.err.println(climb.stats());
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return the contents of the file named NAME, or of the standard
+     *  input if NAME is null. */
+    private static String read(String name) {
+        try {
+            byte[] contents = name == null ? System.in.readAllBytes()
+                : Files.readAllBytes(Paths.get(name));
+            return new String(contents, Charset.defaultCharset());
+        } catch (IOException | InvalidPathException excp) {
+            throw error("could not read %s",
+                        name == null ? "standard input" : name);
+        }
+    }
+
+    /** A search for the key of machines specified by SPEC that gives
+     *  the characters of CIPHERTEXT that are in SPEC's alphabet (the rest
+     *  being ignored).  Plugboards are finally judged by NGRAMS, unless
+     *  it is null. */
+    HillClimb(MachineSpec spec, String ciphertext, NGrams ngrams) {
+        _spec = spec;
+        _ngrams = ngrams;
+        Alphabet alpha = spec.alphabet();
+        int[] cipher = new int[ciphertext.length()];
+        int len = 0;
+        for (int i = 0; i < ciphertext.length(); i += 1) {
+            if (alpha.contains(ciphertext.charAt(i))) {
+                cipher[len] = alpha.toInt(ciphertext.charAt(i));
+                len += 1;
+            }
+        }
+        if (len < 2) {
+            throw error("ciphertext too short");
+        }
+        _cipher = Arrays.copyOf(cipher, len);
+        _orders = Bombe.rotorOrders(spec);
+    }
+
+    /** Return the best key found by RESTARTS climbs, using THREADS
+     *  threads. */
+    Result run(int threads, int restarts) {
+        if (threads < 1 || restarts < 1) {
+            throw error("need at least one thread and one restart");
+        }
+        _best.set(null);
+        _start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            ArrayList<ForkJoinTask<List<Result>>> ranked =
+                new ArrayList<ForkJoinTask<List<Result>>>();
+            for (String[] order : _orders) {
+                ranked.add(pool.submit(() -> rank(order, restarts)));
+            }
+            PriorityQueue<Result> starts = new PriorityQueue<Result>();
+            for (ForkJoinTask<List<Result>> task : ranked) {
+                for (Result result : task.join()) {
+                    keep(starts, result, restarts);
+                }
+            }
+            ArrayList<ForkJoinTask<?>> climbs =
+                new ArrayList<ForkJoinTask<?>>();
+            for (Result start : starts) {
+                climbs.add(pool.submit(() -> post(climb(start))));
+            }
+            for (ForkJoinTask<?> task : climbs) {
+                task.join();
+            }
+            return _best.get();
+        } finally {
+            _time = System.nanoTime() - _start;
+            pool.shutdownNow();
+        }
+    }
+
+    /** Return the best KEEP starting positions for the rotors named
+     *  ORDER, with rings at A and an empty plugboard. */
+    private List<Result> rank(String[] order, int keep) {
+        Machine machine = _spec.newMachine();
+        machine.insertRotors(order);
+        int n = _spec.alphabet().size();
+        int[] setting = new int[order.length - 1];
+        int[] text = new int[_cipher.length];
+        PriorityQueue<Result> best = new PriorityQueue<Result>();
+        long positions = 0;
+        do {
+            machine.setRotors(setting);
+            System.arraycopy(_cipher, 0, text, 0, text.length);
+            machine.convert(text, 0, text.length);
+            double score = coincidence(text, n);
+            positions += 1;
+            if (best.size() < keep || score > best.peek().score()) {
+                int[] settings = new int[order.length];
+                System.arraycopy(setting, 0, settings, 1, setting.length);
+                keep(best, new Result(new MachineState(
+                    order, settings, new int[order.length],
+                    machine.plugboard()), score), keep);
+            }
+        } while (Bombe.nextSetting(setting, n));
+        _positions.addAndGet(positions);
+        return new ArrayList<Result>(best);
+    }
+
+    /** Add RESULT to BEST, a queue whose head is its worst, discarding
+     *  the worst if BEST then has more than KEEP entries. */
+    private static void keep(PriorityQueue<Result> best, Result result,
+                             int keep) {
+        best.add(result);
+        if (best.size() > keep) {
+            best.poll();
+        }
+    }
+
+    /** Return the best key found by climbing from START. */
+    private Result climb(Result start) {
+        Machine machine = _spec.newMachine();
+        MachineState state = start.state();
+        int slots = state.numRotors(), n = _spec.alphabet().size();
+        String[] names = new String[slots];
+        int[] settings = new int[slots], rings = new int[slots];
+        for (int k = 0; k < slots; k += 1) {
+            names[k] = state.rotor(k);
+            settings[k] = state.setting(k);
+        }
+        int[] plug = new int[n];
+        for (int x = 0; x < n; x += 1) {
+            plug[x] = x;
+        }
+        int first = slots - _spec.numPawls();
+        double score = start.score();
+        for (int k = slots - 1; k >= Math.max(first, slots - 2); k -= 1) {
+            int setting = settings[k], bestRing = 0;
+            for (int r = 1; r < n; r += 1) {
+                settings[k] = (setting + r) % n;
+                rings[k] = r;
+                double s = score(machine, names, settings, rings, plug,
+                                 null);
+                if (s > score) {
+                    score = s;
+                    bestRing = r;
+                }
+            }
+            settings[k] = (setting + bestRing) % n;
+            rings[k] = bestRing;
+        }
+        score = climbPlugboard(machine, names, settings, rings, plug, null);
+        if (_ngrams != null) {
+            score = climbPlugboard(machine, names, settings, rings, plug,
+                                   _ngrams);
+        }
+        _climbs.incrementAndGet();
+        return new Result(new MachineState(names, settings, rings,
+                                           new Permutation(plug,
+                                               _spec.alphabet())),
+                          score);
+    }
+
+    /** Improve PLUG, a plugboard mapping for a machine with rotors NAMES
+     *  at SETTINGS and RINGS, by plugging or replugging one pair at a
+     *  time while that raises the score by NGRAMS (or by index of
+     *  coincidence if NGRAMS is null).  Returns the final score. */
+    private double climbPlugboard(Machine machine, String[] names,
+                                  int[] settings, int[] rings, int[] plug,
+                                  NGrams ngrams) {
+        int n = plug.length;
+        double score = score(machine, names, settings, rings, plug, ngrams);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int a = 0; a < n; a += 1) {
+                for (int b = a + 1; b < n; b += 1) {
+                    if (plug[a] == b) {
+                        continue;
+                    }
+                    int[] trial = plug.clone();
+                    trial[trial[a]] = trial[a];
+                    trial[trial[b]] = trial[b];
+                    trial[a] = b;
+                    trial[b] = a;
+                    double s = score(machine, names, settings, rings, trial,
+                                     ngrams);
+                    if (s > score) {
+                        score = s;
+                        System.arraycopy(trial, 0, plug, 0, n);
+                        improved = true;
+                    }
+                }
+            }
+        }
+        return score;
+    }
+
+    /** Return the score, by NGRAMS or by index of coincidence if NGRAMS
+     *  is null, of the decryption of my ciphertext by MACHINE with
+     *  rotors NAMES at SETTINGS and RINGS and plugboard PLUG. */
+    private double score(Machine machine, String[] names, int[] settings,
+                         int[] rings, int[] plug, NGrams ngrams) {
+        Alphabet alpha = _spec.alphabet();
+        machine.restore(new MachineState(names, settings, rings,
+                                         new Permutation(plug, alpha)));
+        int[] text = _cipher.clone();
+        machine.convert(text, 0, text.length);
+        _trials.incrementAndGet();
+        if (ngrams == null) {
+            return coincidence(text, alpha.size());
+        }
+        return ngrams.score(text);
+    }
+
+    /** Return the index of coincidence of TEXT, whose characters are
+     *  indices less than N. */
+    static double coincidence(int[] text, int n) {
+        long[] counts = new long[n];
+        for (int c : text) {
+            counts[c] += 1;
+        }
+        long sum = 0;
+        for (long count : counts) {
+            sum += count * (count - 1);
+        }
+        return (double) sum / ((long) text.length * (text.length - 1));
+    }
+
+    /** Post RESULT to the board of best results. */
+    private void post(Result result) {
+        _best.accumulateAndGet(result, Result::better);
+    }
+
+    /** Return my ciphertext decrypted by a machine in STATE. */
+    String decrypt(MachineState state) {
+        Machine machine = _spec.newMachine();
+        machine.restore(state);
+        int[] text = _cipher.clone();
+        machine.convert(text, 0, text.length);
+        StringBuilder result = new StringBuilder();
+        for (int c : text) {
+            result.append(_spec.alphabet().toChar(c));
+        }
+        return result.toString();
+    }
+
+    /** Return the number of starting positions ranked so far. */
+    long positions() {
+        return _positions.get();
+    }
+
+    /** Return a summary of the work done by the last run(). */
+    String stats() {
+        double seconds = _time / 1e9;
+        return String.format("%d rotor orders, %d positions, %d climbs, "
+                             + "%d trial decryptions in %.2f s "
+                             + "(%.0f decryptions/s)",
+                             _orders.size(), positions(), _climbs.get(),
+                             _positions.get() + _trials.get(), seconds,
+                             (_positions.get() + _trials.get())
+                             / Math.max(seconds, 1e-9));
+    }
+
+    /** A key and its score, ordered from worst to best. */
+    static final class Result implements Comparable<Result> {
+
+        /** A result for STATE, with score SCORE. */
+        Result(MachineState state, double score) {
+            _state = state;
+            _score = score;
+        }
+
+        /** Return the key. */
+        MachineState state() {
+            return _state;
+        }
+
+        /** Return the score. */
+        double score() {
+            return _score;
+        }
+
+        /** Return the better of A and B, either of which may be null. */
+        static Result better(Result a, Result b) {
+            if (a == null || (b != null && b._score > a._score)) {
+                return b;
+            }
+            return a;
+        }
+
+        @Override
+        public int compareTo(Result other) {
+            return Double.compare(_score, other._score);
+        }
+
+        /** The key. */
+        private final MachineState _state;
+
+        /** The score. */
+        private final double _score;
+    }
+
+    /** Log probabilities of the n-grams of a language. */
+    static final class NGrams {
+
+        /** N-grams over the characters of ALPHA, read from COUNTS, which
+         *  has an n-gram and its count on each line. */
+        NGrams(String counts, Alphabet alpha) {
+            _size = alpha.size();
+            String[] lines = counts.trim().split("\\s*\\n\\s*");
+            _length = lines[0].split("\\s+")[0].length();
+            if (_length < 1
+                || Math.pow(_size, _length) > MAX_NGRAM_TABLE) {
+                throw error("bad n-gram length %d", _length);
+            }
+            double[] count = new double[(int) Math.pow(_size, _length)];
+            double total = 0;
+            for (String line : lines) {
+                String[] fields = line.split("\\s+");
+                if (fields.length != 2 || fields[0].length() != _length) {
+                    throw error("bad n-gram line: %s", line);
+                }
+                int index = 0;
+                for (int i = 0; i < _length; i += 1) {
+                    char ch = fields[0].charAt(i);
+                    if (!alpha.contains(ch)) {
+                        throw error("bad n-gram line: %s", line);
+                    }
+                    index = index * _size + alpha.toInt(ch);
+                }
+                try {
+                    count[index] += Double.parseDouble(fields[1]);
+                } catch (NumberFormatException excp) {
+                    throw error("bad n-gram line: %s", line);
+                }
+                total += count[index];
+            }
+            _logs = new double[count.length];
+            double floor = Math.log10(FLOOR / total);
+            for (int i = 0; i < count.length; i += 1) {
+                _logs[i] = count[i] > 0 ? Math.log10(count[i] / total)
+                    : floor;
+            }
+        }
+
+        /** Return the sum of the log probabilities of the n-grams of
+         *  TEXT, whose characters are alphabet indices. */
+        double score(int[] text) {
+            double result = 0;
+            int index = 0, mod = _logs.length;
+            for (int i = 0; i < text.length; i += 1) {
+                index = (index * _size + text[i]) % mod;
+                if (i + 1 >= _length) {
+                    result += _logs[index];
+                }
+            }
+            return result;
+        }
+
+        /** Largest number of entries in an n-gram table. */
+        private static final double MAX_NGRAM_TABLE = 1 << 24;
+
+        /** Count given to n-grams that never occur. */
+        private static final double FLOOR = 0.01;
+
+        /** Size of the alphabet. */
+        private final int _size;
+
+        /** Number of characters in each n-gram. */
+        private final int _length;
+
+        /** Log probability of each n-gram, indexed by its characters as
+         *  digits in base _size. */
+        private final double[] _logs;
+    }
+
+    /** Default number of climbs. */
+    static final int RESTARTS = 32;
+
+    /** Specification of the machines searched. */
+    private final MachineSpec _spec;
+
+    /** Ciphertext, as alphabet indices. */
+    private final int[] _cipher;
+
+    /** Final judge of plugboards, or null. */
+    private final NGrams _ngrams;
+
+    /** The rotor orders tried. */
+    private final List<String[]> _orders;
+
+    /** The best result posted by any climb. */
+    private final AtomicReference<Result> _best =
+        new AtomicReference<Result>();
+
+    /** Numbers of starting positions ranked, climbs finished, and
+     *  decryptions tried while climbing. */
+    private final AtomicLong _positions = new AtomicLong(),
+        _climbs = new AtomicLong(), _trials = new AtomicLong();
+
+    /** Time of the start of the last run, and then its length, in
+     *  nanoseconds. */
+    private long _start, _time;
+
+}
@@ -0,0 +1,67 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the HillClimb class.
+ *  @author Smit Malde
+ */
+public class HillClimbTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTS ***** */
+
+    private static final Alphabet AZ = new Alphabet(TestUtils.UPPER_STRING);
+
+    private static final String PLAIN =
+        "THEENIGMAMACHINEWASACIPHERDEVICEUSEDINTHEEARLYTOMIDTWENTIETH"
+        + "CENTURYTOPROTECTCOMMERCIALDIPLOMATICANDMILITARYCOMMUNICATION"
+        + "ITWASEMPLOYEDEXTENSIVELYBYNAZIGERMANYDURINGWORLDWARTWOINALL"
+        + "BRANCHESOFTHEGERMANMILITARYTHEMACHINEWASCONSIDEREDSOSECURE"
+        + "THATITWASUSEDTOENCIPHERTHEMOSTTOPSECRETMESSAGESTHEENIGMAHAS"
+        + "ANELECTROMECHANICALROTORMECHANISMTHATSCRAMBLESTHETWENTYSIX"
+        + "LETTERSOFTHEALPHABETINTYPICALUSEONEPERSONENTERSTEXTONTHE";
+
+    /** A specification for machines with reflector B and three of the
+     *  naval rotors I, II, and III. */
+    private static MachineSpec spec() {
+        return TestUtils.navalSpec(AZ, 4, 3, new String[] { "B" },
+                                   new String[0],
+                                   new String[] { "I", "II", "III" },
+                                   new String[] { "Q", "E", "V" });
+    }
+
+    @Test
+    public void testRecoversKey() {
+        MachineSpec spec = spec();
+        Machine mach = spec.newMachine();
+        mach.insertRotors(new String[] { "B", "II", "III", "I" });
+        mach.setRotors("MCK");
+        mach.setPlugboard(new Permutation("(AT) (EK) (RZ)", AZ));
+        String cipher = mach.convert(PLAIN);
+
+        HillClimb climb = new HillClimb(spec, cipher, null);
+        HillClimb.Result best = climb.run(2, 4);
+        assertEquals(6 * 26 * 26 * 26, climb.positions());
+        assertEquals(PLAIN, climb.decrypt(best.state()));
+        assertEquals("* B II III I MCK (AT) (EK) (RZ)",
+                     best.state().settingLine(AZ));
+    }
+
+    @Test
+    public void testScores() {
+        int[] text = { 0, 1, 0, 1, 2 };
+        assertEquals(4.0 / 20, HillClimb.coincidence(text, 3), 1e-9);
+        HillClimb.NGrams bigrams =
+            new HillClimb.NGrams("AB 3\nBA 1\n", new Alphabet("ABC"));
+        assertEquals(2 * Math.log10(0.75) + 2 * Math.log10(0.25),
+                     bigrams.score(new int[] { 0, 1, 0, 1, 0 }), 1e-9);
+        assertNull(HillClimb.Result.better(null, null));
+    }
+
+}
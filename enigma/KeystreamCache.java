@@ -0,0 +1,286 @@
+package enigma;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** The keystreams of recently used keys.  The keystream of a key (the
+ *  machine state produced by a setting line) is the sequence of
+ *  substitutions its machine makes for the first, second, ...
+ *  character converted: at each position, the plugboard, the rotors
+ *  as they stand after stepping, and the plugboard again, combined into
+ *  a single row mapping each alphabet index to its conversion.  Once a
+ *  row is built, every later message under the same key converts the
+ *  character at that position with one lookup, without stepping or
+ *  visiting the rotors.
+ *
+ *  Rows are built lazily, as messages reach them, up to a fixed number
+ *  of positions per key, and hold one byte per alphabet character, so
+ *  only alphabets of at most 256 characters have keystreams.  Since
+ *  building a row costs as much as converting a character at every
+ *  index, a key gets a keystream only once it has been used ADMIT
+ *  times; until then only its uses are counted, and its keystream is
+ *  made on admission, outside the cache's lock.  At most as many keys
+ *  are kept as fit in a fixed number of bytes when fully built, the
+ *  least recently used being dropped first.
+ *  A KeystreamCache and its keystreams may be shared between threads.
+ *
+ *  When a machine converts with a KeystreamEngine that already holds
+ *  the cycle of its key's rotors, ring settings, and plugboard, the
+ *  key's messages are converted through the rows of that cycle, which
+ *  cover every position, without counting uses or building rows here.
+ *  @author Smit Malde
+ */
+class KeystreamCache {
+
+    /** A cache of keystreams of LENGTH positions for machines of SPEC,
+     *  holding as many keys as fit in BUDGET bytes.  It holds none if
+     *  LENGTH is 0 or SPEC's alphabet has more than 256 characters. */
+    KeystreamCache(MachineSpec spec, int length, long budget) {
+        int n = spec.alphabet().size();
+        long perKey = Math.max(1, (long) length * n);
+        _length = length;
+        _capacity = length <= 0 || n > BYTE_VALUES ? 0
+            : (int) Math.min(Integer.MAX_VALUE, budget / perKey);
+        _keys = new LinkedHashMap<String, Key>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, Key> eldest) {
+                return size() > _capacity;
+            }
+        };
+    }
+
+    /** Return a keystream for converting messages with M, which has
+     *  just been set up by the normalized setting line LINE, starting
+     *  at its first position; or null if M is to convert them itself. */
+    Keystream get(String line, Machine m) {
+        if (_capacity == 0) {
+            return null;
+        }
+        if (m.engine() instanceof KeystreamEngine) {
+            KeystreamEngine.Cycle cycle =
+                ((KeystreamEngine) m.engine()).held(m);
+            int start = cycle == null ? -1 : cycle.position(m);
+            if (start >= 0) {
+                return new Keystream(cycle.rows(), start, m);
+            }
+        }
+        Key key;
+        synchronized (this) {
+            key = _keys.get(line);
+            if (key == null) {
+                key = new Key();
+                _keys.put(line, key);
+            }
+            key._uses += 1;
+            if (key._uses <= ADMIT) {
+                return null;
+            }
+        }
+        return new Keystream(key.stream(m, _length), m);
+    }
+
+    /** Return the number of keys I hold. */
+    synchronized int size() {
+        return _keys.size();
+    }
+
+    /** Return the most keys I hold. */
+    int capacity() {
+        return _capacity;
+    }
+
+    /** The uses of one key, and once it is admitted, its keystream. */
+    private static final class Key {
+
+        /** Return my keystream, of at most LENGTH positions, making it
+         *  from M, which has just been set up by my setting line, if it
+         *  is not yet made. */
+        synchronized Stream stream(Machine m, int length) {
+            if (_stream == null) {
+                _stream = new Stream(m.state(), m.spec(), length);
+            }
+            return _stream;
+        }
+
+        /** Number of times I have been looked up, guarded by the
+         *  cache. */
+        private int _uses;
+
+        /** My keystream, or null until I am admitted. */
+        private Stream _stream;
+    }
+
+    /** The rows of one key's keystream, shared by all its Keystreams. */
+    private static final class Stream {
+
+        /** The keystream of KEY, for machines of SPEC, of at most LENGTH
+         *  positions. */
+        Stream(MachineState key, MachineSpec spec, int length) {
+            _machine = spec.newMachine();
+            _machine.restore(key);
+            _plugboard = key.plugboard().toArray();
+            _rows = new byte[length][];
+        }
+
+        /** Make sure that my rows for positions 0 .. END-1 are built,
+         *  and return them; END is at most the length of the result. */
+        synchronized byte[][] rows(int end) {
+            int n = _plugboard.length;
+            int[] scrambler = new int[n], substitution = new int[n];
+            for (; _built < end; _built += 1) {
+                _machine.advance(1);
+                _machine.scrambler(scrambler);
+                Permutation.compose(_plugboard, scrambler, substitution);
+                Permutation.compose(substitution, _plugboard, substitution);
+                byte[] row = new byte[n];
+                for (int c = 0; c < n; c += 1) {
+                    row[c] = (byte) substitution[c];
+                }
+                _rows[_built] = row;
+            }
+            return _rows;
+        }
+
+        /** Machine in my key's state, advanced past the rows built. */
+        private final Machine _machine;
+
+        /** Conversion of each index by my key's plugboard. */
+        private final int[] _plugboard;
+
+        /** Row for each position, or null where not yet built. */
+        private final byte[][] _rows;
+
+        /** Number of rows built. */
+        private int _built;
+    }
+
+    /** Converts the messages following one setting line through the
+     *  keystream of its key, as far as that goes. */
+    static final class Keystream {
+
+        /** A converter through the rows of STREAM for M, which is in
+         *  STREAM's key state. */
+        private Keystream(Stream stream, Machine m) {
+            _stream = stream;
+            _cycle = null;
+            _machine = m;
+            _alphabet = m.alphabet();
+        }
+
+        /** A converter for M through the rows CYCLE, which repeat,
+         *  starting at the row numbered START. */
+        private Keystream(byte[][] cycle, int start, Machine m) {
+            _stream = null;
+            _cycle = cycle;
+            _machine = m;
+            _alphabet = m.alphabet();
+            _position = start;
+        }
+
+        /** Convert the LEN characters of SRC starting at SRCOFF into DST
+         *  starting at DSTOFF, exactly as my machine would, had it
+         *  converted all the characters I have.  Returns the number of
+         *  characters stored; or, once my keystream does not reach far
+         *  enough, -1, having advanced my machine past the characters I
+         *  converted so that it may convert this and any later messages
+         *  itself. */
+        int convert(char[] src, int srcOff, int len, char[] dst,
+                    int dstOff) {
+            if (_cycle != null) {
+                return convertCycle(src, srcOff, len, dst, dstOff);
+            }
+            if (_position < 0) {
+                return -1;
+            }
+            byte[][] rows = _stream._rows;
+            if (_position + len > rows.length) {
+                _machine.advance(_position);
+                _position = -1;
+                return -1;
+            }
+            if (_position + len > _built) {
+                rows = _stream.rows(_position + len);
+                _built = _position + len;
+            }
+            int n = _alphabet.size(), t = _position, j = dstOff;
+            for (int i = srcOff; i < srcOff + len; i += 1) {
+                if (src[i] == ' ') {
+                    continue;
+                }
+                int c = _alphabet.toInt(src[i]);
+                c = rows[t][c < 0 ? n - 1 : c] & BYTE_MASK;
+                dst[j] = _alphabet.toChar(c);
+                t += 1;
+                j += 1;
+            }
+            _position = t;
+            Metrics.get().converted(j - dstOff);
+            return j - dstOff;
+        }
+
+        /** As for convert, through the rows of _cycle, which never run
+         *  out. */
+        private int convertCycle(char[] src, int srcOff, int len,
+                                 char[] dst, int dstOff) {
+            byte[][] rows = _cycle;
+            int n = _alphabet.size(), period = rows.length;
+            int t = _position, j = dstOff;
+            for (int i = srcOff; i < srcOff + len; i += 1) {
+                if (src[i] == ' ') {
+                    continue;
+                }
+                int c = _alphabet.toInt(src[i]);
+                c = rows[t][c < 0 ? n - 1 : c] & BYTE_MASK;
+                dst[j] = _alphabet.toChar(c);
+                t = t + 1 == period ? 0 : t + 1;
+                j += 1;
+            }
+            _position = t;
+            Metrics.get().converted(j - dstOff);
+            return j - dstOff;
+        }
+
+        /** Shared rows of my key's keystream, or null if I convert
+         *  through _cycle. */
+        private final Stream _stream;
+
+        /** Rows of a KeystreamEngine's cycle, or null if I convert
+         *  through _stream. */
+        private final byte[][] _cycle;
+
+        /** Number of rows of _stream known to be built. */
+        private int _built;
+
+        /** Machine for which I convert. */
+        private final Machine _machine;
+
+        /** Alphabet of _machine. */
+        private final Alphabet _alphabet;
+
+        /** Number of characters converted, or -1 once _machine has taken
+         *  over; or, when I convert through _cycle, the row of the next
+         *  character. */
+        private int _position;
+    }
+
+    /** Number of uses of a key before it gets a keystream. */
+    static final int ADMIT = 4;
+
+    /** Number of characters in the largest alphabet with keystreams. */
+    private static final int BYTE_VALUES = 256;
+
+    /** Mask extracting an unsigned value from a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Number of positions in each keystream. */
+    private final int _length;
+
+    /** Most keys in _keys. */
+    private final int _capacity;
+
+    /** Uses and keystream of each key, by normalized setting line, in
+     *  order of use. */
+    private final LinkedHashMap<String, Key> _keys;
+
+}
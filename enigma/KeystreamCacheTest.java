@@ -0,0 +1,166 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the KeystreamCache class.
+ *  @author Smit Malde
+ */
+public class KeystreamCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTS ***** */
+
+    private static final Alphabet AZ = new Alphabet(TestUtils.UPPER_STRING);
+
+    private static final String SETTING =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /** Return a specification with the naval rotors B, Beta, I, III, and
+     *  IV over alphabet ALPHA, which holds at least A-Z. */
+    private static MachineSpec spec(Alphabet alpha) {
+        return TestUtils.navalSpec(alpha, 5, 3, new String[] { "B" },
+                                   new String[] { "Beta" },
+                                   new String[] { "I", "III", "IV" },
+                                   new String[] { "Q", "V", "J" });
+    }
+
+    /** Return the conversions of MSGS, in turn, by a machine of SPEC set
+     *  up by SETTING, through KEYS if not null. */
+    private static String[] convert(MachineSpec spec, KeystreamCache keys,
+                                    String[] msgs) {
+        Machine mach = spec.newMachine();
+        Main.setUp(mach, SETTING);
+        KeystreamCache.Keystream keystream =
+            keys == null ? null : keys.get(SETTING, mach);
+        String[] result = new String[msgs.length];
+        for (int m = 0; m < msgs.length; m += 1) {
+            char[] msg = msgs[m].toCharArray(), out = new char[msg.length];
+            int len = keystream == null ? -1
+                : keystream.convert(msg, 0, msg.length, out, 0);
+            if (len < 0) {
+                len = mach.convert(msg, 0, msg.length, out, 0);
+            }
+            result[m] = new String(out, 0, len);
+        }
+        return result;
+    }
+
+    /** Return N random messages drawn from RANDOM, with blanks and
+     *  characters outside A-Z. */
+    private static String[] messages(int n, Random random) {
+        String[] result = new String[n];
+        for (int m = 0; m < n; m += 1) {
+            StringBuilder msg = new StringBuilder();
+            for (int i = random.nextInt(40); i > 0; i -= 1) {
+                int c = random.nextInt(30);
+                msg.append(c < 26 ? AZ.toChar(c) : c < 29 ? ' ' : '?');
+            }
+            result[m] = msg.toString();
+        }
+        return result;
+    }
+
+    @Test
+    public void testMatchesMachine() {
+        MachineSpec spec = spec(AZ);
+        KeystreamCache keys = new KeystreamCache(spec, 100, 1 << 20);
+        Random random = new Random(23);
+        for (int use = 0; use < 3 * KeystreamCache.ADMIT; use += 1) {
+            String[] msgs = messages(8, random);
+            assertEquals(Arrays.asList(convert(spec, null, msgs)),
+                         Arrays.asList(convert(spec, keys, msgs)));
+        }
+        assertEquals(1, keys.size());
+    }
+
+    @Test
+    public void testAdmission() {
+        MachineSpec spec = spec(AZ);
+        KeystreamCache keys = new KeystreamCache(spec, 100, 1 << 20);
+        Machine mach = spec.newMachine();
+        for (int use = 0; use < KeystreamCache.ADMIT; use += 1) {
+            Main.setUp(mach, SETTING);
+            assertNull(keys.get(SETTING, mach));
+        }
+        Main.setUp(mach, SETTING);
+        assertNotNull(keys.get(SETTING, mach));
+    }
+
+    @Test
+    public void testCoveredByEngine() {
+        MachineSpec spec = spec(AZ);
+        KeystreamCache keys = new KeystreamCache(spec, 100, 1 << 20);
+        Machine mach = spec.newMachine();
+        mach.setEngine(ConversionEngine.named("keystream"));
+        Main.setUp(mach, SETTING);
+        assertNull(keys.get(SETTING, mach));
+        mach.convert("HELLO");
+        String[] msgs = messages(3, new Random(5));
+        msgs[1] = TestUtils.UPPER_STRING.repeat(1000);
+        String[] expected = convert(spec, null, msgs);
+        Main.setUp(mach, SETTING);
+        KeystreamCache.Keystream keystream = keys.get(SETTING, mach);
+        assertNotNull(keystream);
+        for (int m = 0; m < msgs.length; m += 1) {
+            char[] msg = msgs[m].toCharArray(), out = new char[msg.length];
+            int len = keystream.convert(msg, 0, msg.length, out, 0);
+            assertEquals(expected[m], new String(out, 0, len));
+        }
+        assertEquals(1, keys.size());
+    }
+
+    @Test
+    public void testBounds() {
+        MachineSpec spec = spec(AZ);
+        assertEquals(10, new KeystreamCache(spec, 100, 26000).capacity());
+        assertEquals(0, new KeystreamCache(spec, 0, 26000).capacity());
+        KeystreamCache keys = new KeystreamCache(spec, 100, 2 * 2600);
+        Machine mach = spec.newMachine();
+        for (String line : new String[] { "a", "b", "c", "a" }) {
+            Main.setUp(mach, SETTING);
+            keys.get(line, mach);
+        }
+        assertEquals(2, keys.size());
+        StringBuilder chars = new StringBuilder(TestUtils.UPPER_STRING);
+        for (char ch = '\u0100'; chars.length() <= 256; ch += 1) {
+            chars.append(ch);
+        }
+        assertEquals(0, new KeystreamCache(spec(new Alphabet(
+            chars.toString())), 100, 1 << 20).capacity());
+    }
+
+    @Test
+    public void testShared() throws Exception {
+        MachineSpec spec = spec(AZ);
+        KeystreamCache keys = new KeystreamCache(spec, 200, 1 << 20);
+        String[] msgs = messages(20, new Random(7));
+        String[] expected = convert(spec, null, msgs);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            ArrayList<Future<String[]>> results =
+                new ArrayList<Future<String[]>>();
+            for (int i = 0; i < 40; i += 1) {
+                results.add(pool.submit(() -> convert(spec, keys, msgs)));
+            }
+            for (Future<String[]> result : results) {
+                assertEquals(Arrays.asList(expected),
+                             Arrays.asList(result.get()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+}
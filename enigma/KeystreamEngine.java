@@ -0,0 +1,372 @@
+package enigma;
+
+import java.util.Arrays;
+
+/** The conversion engine that precomputes a machine's whole keystream.
+ *  The settings of a machine's pawled rotors follow a fixed sequence
+ *  that, from any start, soon enters a cycle (of 16900 settings, for
+ *  three rotors with one notch each over 26 characters).  For each
+ *  setting on that cycle, I build the machine's complete substitution
+ *  there, plugboard to plugboard, as a row of bytes.  Each character is
+ *  then converted by one lookup in the row of the next setting, with no
+ *  stepping or rotor lookups.  The settings before the cycle is reached
+ *  are converted by the table engine.
+ *
+ *  The cycle is built for the rotors, ring settings, non-moving rotor
+ *  settings, and plugboard of the machine I am first asked to use.  When
+ *  they change, it is rebuilt only once the table engine has converted
+ *  about as many characters since the last build as building would
+ *  cost (the number of pawled rotor settings times the alphabet size),
+ *  so that input that changes key often is not slowed by builds it
+ *  cannot repay.  Only machines with at most 256 characters
+ *  and MAX_STATES pawled rotor settings have keystreams; I convert for
+ *  any others with the table engine.  A KeystreamEngine may be shared
+ *  by machines on several threads.
+ *
+ *  Main's KeystreamCache (--keystream) also converts with one lookup
+ *  per character, but keeps only the first few rows after each of many
+ *  recently used setting lines.  The two complement each other: the
+ *  cache serves the starts of messages under keys that recur, and I
+ *  serve long runs under one key.  For a key whose cycle I already
+ *  hold (see held), the cache converts through my rows instead of
+ *  building its own, so no row is built twice.
+ *  @author Smit Malde
+ */
+class KeystreamEngine implements ConversionEngine {
+
+    @Override
+    public String name() {
+        return "keystream";
+    }
+
+    @Override
+    public boolean tableDriven() {
+        return true;
+    }
+
+    @Override
+    public void convert(Machine m, int[] msg, int off, int len) {
+        Cycle cycle = len == 0 ? null : cycle(m, len);
+        int lead = cycle == null ? len : lead(cycle, m, len);
+        TABLE.convert(m, msg, off, lead);
+        if (lead == len) {
+            return;
+        }
+        byte[][] rows = cycle._rows;
+        Permutation plugboard = m.plugboard();
+        int n = plugboard.size(), period = rows.length;
+        int t = cycle.next(cycle.pack(m));
+        for (int i = off + lead; i < off + len; i++) {
+            int c = msg[i];
+            if (c < 0 || c >= n) {
+                c = plugboard.wrap(c);
+            }
+            msg[i] = rows[t][c] & BYTE_MASK;
+            t = t + 1 == period ? 0 : t + 1;
+        }
+        cycle.unpack(cycle._states[t == 0 ? period - 1 : t - 1], m);
+    }
+
+    @Override
+    public void convert(Machine m, byte[] msg, int off, int len) {
+        Cycle cycle = len == 0 ? null : cycle(m, len);
+        int lead = cycle == null ? len : lead(cycle, m, len);
+        TABLE.convert(m, msg, off, lead);
+        if (lead == len) {
+            return;
+        }
+        byte[][] rows = cycle._rows;
+        int n = m.alphabet().size(), period = rows.length;
+        int t = cycle.next(cycle.pack(m));
+        for (int i = off + lead; i < off + len; i++) {
+            int c = msg[i] & BYTE_MASK;
+            if (c >= n) {
+                throw new EnigmaException(c + " is out of range");
+            }
+            msg[i] = rows[t][c];
+            t = t + 1 == period ? 0 : t + 1;
+        }
+        cycle.unpack(cycle._states[t == 0 ? period - 1 : t - 1], m);
+    }
+
+    /** Return my cycle, if it is built for M's current rotors, ring
+     *  settings, non-moving rotor settings, and plugboard, and M's
+     *  pawled rotors will reach it; otherwise null.  Never builds. */
+    Cycle held(Machine m) {
+        Cycle cycle = _cycle;
+        return cycle != null && cycle.reaches(m) ? cycle : null;
+    }
+
+    /** Return the number of characters, at most LEN, that M must convert
+     *  before the next settings of its pawled rotors are on CYCLE. */
+    private static int lead(Cycle cycle, Machine m, int len) {
+        int result = 0;
+        for (int s = cycle.pack(m); result < len && cycle.next(s) < 0;
+             s = cycle.step(s)) {
+            result += 1;
+        }
+        return result;
+    }
+
+    /** Return the number of settings of the pawled rotors of machines
+     *  of SPEC, or Long.MAX_VALUE if there are more than MAX_STATES or
+     *  their alphabet is too large to have a keystream. */
+    static long states(MachineSpec spec) {
+        int n = spec.alphabet().size();
+        if (n > BYTE_VALUES) {
+            return Long.MAX_VALUE;
+        }
+        long result = 1;
+        for (int k = 0; k < spec.numPawls(); k++) {
+            result *= n;
+            if (result > MAX_STATES) {
+                return Long.MAX_VALUE;
+            }
+        }
+        return result;
+    }
+
+    /** Return the most bytes I use for each setting of the pawled
+     *  rotors of machines of SPEC. */
+    static long bytesPerState(MachineSpec spec) {
+        return spec.alphabet().size() + 2 * Integer.BYTES;
+    }
+
+    /** Return the cycle of M's pawled rotor settings for its current
+     *  rotors, ring settings, and plugboard, building it if need be; or
+     *  null if M is to convert the next LEN characters with the table
+     *  engine, because it has too many settings or characters, or it is
+     *  too soon to build another cycle. */
+    private Cycle cycle(Machine m, int len) {
+        Cycle cycle = _cycle;
+        if (cycle != null && cycle.reaches(m)) {
+            return cycle;
+        }
+        long states = states(m.spec());
+        if (states == Long.MAX_VALUE) {
+            return null;
+        }
+        long cost = states * m.alphabet().size();
+        synchronized (this) {
+            cycle = _cycle;
+            if (cycle == null || !cycle.reaches(m)) {
+                if (_deferred < cost) {
+                    _deferred += len;
+                    return null;
+                }
+                _deferred = 0;
+                cycle = new Cycle(m);
+                _cycle = cycle;
+            }
+        }
+        return cycle;
+    }
+
+    /** The cycle of settings reached by one machine's pawled rotors,
+     *  and its substitution at each.  Never changes once made. */
+    static final class Cycle {
+
+        /** The cycle reached from the current settings of M, for its
+         *  current rotors, ring settings, and plugboard. */
+        Cycle(Machine m) {
+            Machine scratch = m.copy();
+            _spec = m.spec();
+            _key = m.state();
+            _n = m.alphabet().size();
+            _first = m.numRotors() - m.numPawls();
+            int pawls = m.numPawls();
+            _notches = new boolean[pawls][_n];
+            for (int k = 0; k < pawls; k++) {
+                for (int p = 0; p < _n; p++) {
+                    _notches[k][p] = m.getRotor(_first + k).notchAt(p);
+                }
+            }
+
+            int states = (int) states(m.spec());
+            int[] index = new int[states];
+            Arrays.fill(index, UNVISITED);
+            int[] order = new int[states];
+            int s = pack(m), steps = 0;
+            while (index[s] == UNVISITED) {
+                index[s] = steps;
+                order[steps] = s;
+                steps += 1;
+                s = step(s);
+            }
+            int start = index[s];
+            for (int j = 0; j < start; j++) {
+                index[order[j]] = TRANSIENT;
+            }
+            _states = Arrays.copyOfRange(order, start, steps);
+            for (int t = 0; t < _states.length; t++) {
+                index[_states[t]] = t;
+            }
+            _next = new int[states];
+            for (s = 0; s < states; s++) {
+                _next[s] = index[step(s)];
+            }
+
+            int[] plugboard = m.plugboard().toArray();
+            int[][] inner = new int[pawls][_n];
+            int[] built = new int[pawls], digits = new int[pawls];
+            int[] forward = new int[_n], backward = new int[_n];
+            Arrays.fill(built, -1);
+            _rows = new byte[_states.length][_n];
+            for (int t = 0; t < _states.length; t++) {
+                s = _states[t];
+                for (int k = pawls - 1; k >= 0; k--) {
+                    digits[k] = s % _n;
+                    s /= _n;
+                }
+                int k = 0;
+                while (k < pawls && digits[k] == built[k]) {
+                    k += 1;
+                }
+                for (; k < pawls; k++) {
+                    Rotor rotor = scratch.getRotor(_first + k);
+                    rotor.set(digits[k]);
+                    rotor.conversions(false, forward);
+                    rotor.conversions(true, backward);
+                    int[] within = k == 0 ? scratch.reflection()
+                        : inner[k - 1];
+                    for (int c = 0; c < _n; c++) {
+                        inner[k][c] = backward[within[forward[c]]];
+                    }
+                    built[k] = digits[k];
+                }
+                int[] scrambler = pawls == 0 ? scratch.reflection()
+                    : inner[pawls - 1];
+                for (int c = 0; c < _n; c++) {
+                    _rows[t][c] = (byte) plugboard[scrambler[plugboard[c]]];
+                }
+            }
+        }
+
+        /** Return my substitution at each position, in order; the last
+         *  is followed by the first. */
+        byte[][] rows() {
+            return _rows;
+        }
+
+        /** Return the position of the settings M's pawled rotors take
+         *  next, or a negative value if they are not on me. */
+        int position(Machine m) {
+            return next(pack(m));
+        }
+
+        /** Return true iff I was built for M's current rotors, ring
+         *  settings, non-moving rotor settings, and plugboard, and M's
+         *  pawled rotors will reach my cycle. */
+        boolean reaches(Machine m) {
+            if (m.spec() != _spec) {
+                return false;
+            }
+            for (int k = 0; k < _key.numRotors(); k++) {
+                Rotor rotor = m.getRotor(k);
+                if (rotor == null || !rotor.name().equals(_key.rotor(k))
+                    || rotor.ringSetting() != _key.ringSetting(k)
+                    || k < _first && rotor.setting() != _key.setting(k)) {
+                    return false;
+                }
+            }
+            Permutation plugboard = m.plugboard();
+            if (plugboard != _key.plugboard()) {
+                for (int c = 0; c < _n; c++) {
+                    if (plugboard.permute(c) != _key.plugboard().permute(c)) {
+                        return false;
+                    }
+                }
+            }
+            return next(pack(m)) != UNVISITED;
+        }
+
+        /** Return the position on my cycle of the settings following
+         *  packed settings S; or TRANSIENT, if they lead to my cycle but
+         *  are not on it; or UNVISITED, if they do not lead to it. */
+        int next(int s) {
+            return _next[s];
+        }
+
+        /** Return the settings of M's pawled rotors, packed into one
+         *  number, the leftmost rotor's being most significant. */
+        int pack(Machine m) {
+            int s = 0;
+            for (int k = _first; k < m.numRotors(); k++) {
+                s = s * _n + m.getRotor(k).setting();
+            }
+            return s;
+        }
+
+        /** Set M's pawled rotors to the packed settings S. */
+        void unpack(int s, Machine m) {
+            for (int k = m.numRotors() - 1; k >= _first; k--) {
+                m.getRotor(k).set(s % _n);
+                s /= _n;
+            }
+        }
+
+        /** Return the packed settings following packed settings S, as
+         *  Machine would step them. */
+        private int step(int s) {
+            int result = 0, scale = 1, right = 0;
+            for (int k = _notches.length - 1; k >= 0; k--) {
+                int p = s % _n;
+                s /= _n;
+                boolean moves = k == _notches.length - 1
+                    || _notches[k + 1][right] || k > 0 && _notches[k][p];
+                right = p;
+                if (moves) {
+                    p = p + 1 == _n ? 0 : p + 1;
+                }
+                result += p * scale;
+                scale *= _n;
+            }
+            return result;
+        }
+
+        /** Specification of the machine I was built for. */
+        private final MachineSpec _spec;
+
+        /** State of the machine I was built for. */
+        private final MachineState _key;
+
+        /** Alphabet size. */
+        private final int _n;
+
+        /** Slot of the first pawled rotor. */
+        private final int _first;
+
+        /** Whether each pawled rotor, leftmost first, is at a notch at
+         *  each setting. */
+        private final boolean[][] _notches;
+
+        /** Position on my cycle of the settings following each packed
+         *  setting, or TRANSIENT or UNVISITED. */
+        private final int[] _next;
+
+        /** Packed settings at each position of my cycle. */
+        private final int[] _states;
+
+        /** Substitution at each position of my cycle. */
+        private final byte[][] _rows;
+    }
+
+    /** Most pawled rotor settings for which a keystream is built. */
+    static final long MAX_STATES = 1 << 22;
+
+    /** Entries of Cycle._next for settings that lead to the cycle
+     *  without being on it, and for those that do not lead to it. */
+    private static final int TRANSIENT = -1, UNVISITED = -2;
+
+    /** Number of characters in the largest alphabet with keystreams. */
+    private static final int BYTE_VALUES = 256;
+
+
+    /** The cycle last built, or null. */
+    private volatile Cycle _cycle;
+
+    /** Number of characters converted with the table engine since
+     *  _cycle was built, or Long.MAX_VALUE before the first build. */
+    private long _deferred = Long.MAX_VALUE;
+
+}
@@ -0,0 +1,266 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static enigma.EnigmaException.*;
+
+/** Converts many independent messages at once, each by a machine in its
+ *  own state.  The states are packed into lanes, one per message, and
+ *  held as arrays indexed by lane: the setting, tables, and notches of
+ *  each pawled rotor, and the plugboard and combined non-moving rotors.
+ *  All lanes are stepped and converted together, one character of each
+ *  message at a time, and each stage of a conversion (stepping, the
+ *  plugboard, each rotor in turn) is done for every lane before the
+ *  next.  The lookups of one lane do not depend on those of another, so
+ *  the processor can overlap them, where a single message must wait for
+ *  each lookup in its chain before starting the next.
+ *
+ *  Lanes are ordered by decreasing message length, so that the lanes
+ *  still converting are always the first ones.
+ *
+ *  I convert lanes with scalar loops.  The benchmarks' vector build
+ *  (see benchmarks/Makefile) adds VectorLaneConverter, which converts
+ *  them with the incubating Vector API, gathering each lane's lookup
+ *  from its own table.  forSpec picks that subclass when it is compiled
+ *  in and the jdk.incubator.vector module is present, and me otherwise.
+ *  @author Smit Malde
+ */
+class LaneConverter {
+
+    /** A converter for machines specified by SPEC. */
+    LaneConverter(MachineSpec spec) {
+        _spec = spec;
+        _scratch = spec.newMachine();
+    }
+
+    /** Return a converter for machines specified by SPEC: a
+     *  VectorLaneConverter if that class and the jdk.incubator.vector
+     *  module are present, and otherwise a LaneConverter. */
+    static LaneConverter forSpec(MachineSpec spec) {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            try {
+                return (LaneConverter) Class.forName(VECTOR_CONVERTER)
+                    .getDeclaredConstructor(MachineSpec.class)
+                    .newInstance(spec);
+            } catch (ReflectiveOperationException | LinkageError excp) {
+                /* Fall back to the scalar lanes. */
+            }
+        }
+        return new LaneConverter(spec);
+    }
+
+    /** Return the conversions of MSGS, where MSGS[L] is converted by a
+     *  machine in state KEYS[L], exactly as Machine.convert(String)
+     *  would convert it. */
+    String[] convert(MachineState[] keys, String[] msgs) {
+        if (keys.length != msgs.length) {
+            throw error("%d keys for %d messages", keys.length,
+                        msgs.length);
+        }
+        Alphabet alpha = _spec.alphabet();
+        int lanes = msgs.length, n = alpha.size();
+        int[][] input = new int[lanes][];
+        Integer[] order = new Integer[lanes];
+        for (int l = 0; l < lanes; l += 1) {
+            input[l] = indices(msgs[l], alpha);
+            order[l] = l;
+        }
+        Arrays.sort(order, (a, b) -> input[b].length - input[a].length);
+
+        int m = _spec.numPawls(), first = _spec.numRotors() - m;
+        Lanes state = new Lanes(n, m, lanes);
+        for (int a = 0; a < lanes; a += 1) {
+            MachineState key = keys[order[a]];
+            _scratch.restore(key);
+            for (int k = 0; k < m; k += 1) {
+                Rotor rotor = _scratch.getRotor(first + k);
+                state.pos[k][a] = rotor.setting();
+                state.forward[k][a] = rotor.forwardTable();
+                state.backward[k][a] = rotor.backwardTable();
+                state.notches[k][a] = notches(rotor);
+            }
+            state.reflection[a] = _scratch.reflection();
+            state.plugboard[a] = plugboard(key.plugboard());
+            state.text[a] = input[order[a]];
+        }
+        convert(state);
+
+        int[][] text = state.text;
+        String[] result = new String[lanes];
+        for (int a = 0; a < lanes; a += 1) {
+            char[] chars = new char[text[a].length];
+            for (int i = 0; i < chars.length; i += 1) {
+                chars[i] = alpha.toChar(text[a][i]);
+            }
+            result[order[a]] = new String(chars);
+        }
+        return result;
+    }
+
+    /** Convert the text of every lane of LANES in place, stepping and
+     *  converting through each lane's own rotors, plugboard, and
+     *  combined non-moving rotors.  The lanes are ordered by decreasing
+     *  text length. */
+    void convert(Lanes lanes) {
+        int n = lanes.n, last = lanes.pos.length - 1;
+        int[][] pos = lanes.pos, text = lanes.text;
+        int[][][][] forward = lanes.forward, backward = lanes.backward;
+        boolean[][][] notches = lanes.notches;
+        int[][] reflection = lanes.reflection, plugboard = lanes.plugboard;
+        int[] c = new int[text.length];
+        for (int start = 0; start < text.length; start += WIDTH) {
+            int end = Math.min(text.length, start + WIDTH);
+            for (int t = 0; ; t += 1) {
+                while (end > start && text[end - 1].length <= t) {
+                    end -= 1;
+                }
+                if (end == start) {
+                    break;
+                }
+                for (int k = 0; k < last; k += 1) {
+                    int[] p = pos[k], right = pos[k + 1];
+                    boolean[][] notch = notches[k],
+                        rightNotch = notches[k + 1];
+                    for (int a = start; a < end; a += 1) {
+                        if (rightNotch[a][right[a]]
+                            || k > 0 && notch[a][p[a]]) {
+                            p[a] = p[a] + 1 == n ? 0 : p[a] + 1;
+                        }
+                    }
+                }
+                if (last >= 0) {
+                    int[] p = pos[last];
+                    for (int a = start; a < end; a += 1) {
+                        p[a] = p[a] + 1 == n ? 0 : p[a] + 1;
+                    }
+                }
+                for (int a = start; a < end; a += 1) {
+                    c[a] = plugboard[a][text[a][t]];
+                }
+                for (int k = last; k >= 0; k -= 1) {
+                    int[] p = pos[k];
+                    int[][][] table = forward[k];
+                    for (int a = start; a < end; a += 1) {
+                        c[a] = table[a][p[a]][c[a]];
+                    }
+                }
+                for (int a = start; a < end; a += 1) {
+                    c[a] = reflection[a][c[a]];
+                }
+                for (int k = 0; k <= last; k += 1) {
+                    int[] p = pos[k];
+                    int[][][] table = backward[k];
+                    for (int a = start; a < end; a += 1) {
+                        c[a] = table[a][p[a]][c[a]];
+                    }
+                }
+                for (int a = start; a < end; a += 1) {
+                    text[a][t] = plugboard[a][c[a]];
+                }
+            }
+        }
+    }
+
+    /** Return the alphabet indices in ALPHA of the characters of MSG,
+     *  skipping blanks.  As in Machine.convert, a character not in
+     *  ALPHA is taken as the last character, since Permutation.permute
+     *  wraps its index, -1. */
+    private static int[] indices(String msg, Alphabet alpha) {
+        int[] result = new int[msg.length()];
+        int len = 0;
+        for (int i = 0; i < msg.length(); i += 1) {
+            char ch = msg.charAt(i);
+            if (ch != ' ') {
+                int c = alpha.toInt(ch);
+                result[len] = c < 0 ? alpha.size() - 1 : c;
+                len += 1;
+            }
+        }
+        return Arrays.copyOf(result, len);
+    }
+
+    /** Return whether ROTOR is at a notch at each setting, shared by all
+     *  lanes holding a rotor with its name. */
+    private boolean[] notches(Rotor rotor) {
+        boolean[] result = _notches.get(rotor.name());
+        if (result == null) {
+            result = new boolean[rotor.size()];
+            for (int p = 0; p < result.length; p += 1) {
+                result[p] = rotor.notchAt(p);
+            }
+            _notches.put(rotor.name(), result);
+        }
+        return result;
+    }
+
+    /** Return the mapping of each index by PLUGBOARD. */
+    private static int[] plugboard(Permutation plugboard) {
+        int[] result = new int[plugboard.size()];
+        for (int p = 0; p < result.length; p += 1) {
+            result[p] = plugboard.permute(p);
+        }
+        return result;
+    }
+
+    /** The state of a batch of lanes.  Each array is indexed by lane,
+     *  after the index of the pawled rotor where there is one. */
+    static final class Lanes {
+
+        /** Lanes for LANES messages over an alphabet of N characters,
+         *  with M pawled rotors. */
+        Lanes(int n, int m, int lanes) {
+            this.n = n;
+            pos = new int[m][lanes];
+            forward = new int[m][lanes][][];
+            backward = new int[m][lanes][][];
+            notches = new boolean[m][lanes][];
+            reflection = new int[lanes][];
+            plugboard = new int[lanes][];
+            text = new int[lanes][];
+        }
+
+        /** Size of the alphabet. */
+        final int n;
+
+        /** Setting of each pawled rotor, leftmost first. */
+        final int[][] pos;
+
+        /** Forward and backward tables of each pawled rotor, as from
+         *  Rotor.forwardTable and Rotor.backwardTable. */
+        final int[][][][] forward, backward;
+
+        /** Whether each pawled rotor is at a notch at each setting. */
+        final boolean[][][] notches;
+
+        /** Combined non-moving rotors, and the plugboard. */
+        final int[][] reflection, plugboard;
+
+        /** Alphabet indices of each lane's message, converted in
+         *  place. */
+        final int[][] text;
+    }
+
+    /** Number of lanes converted together.  Lanes are taken in blocks
+     *  of this many, so that the state of a block stays in cache. */
+    static final int WIDTH = 128;
+
+    /** Module holding the Vector API. */
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    /** Class converting lanes with the Vector API, when compiled in. */
+    private static final String VECTOR_CONVERTER =
+        "enigma.VectorLaneConverter";
+
+    /** Specification of my machines. */
+    private final MachineSpec _spec;
+
+    /** Machine into which each state is restored to find its rotors'
+     *  tables and its combined non-moving rotors. */
+    private final Machine _scratch;
+
+    /** Notches of each rotor, by name, as returned by notches. */
+    private final HashMap<String, boolean[]> _notches =
+        new HashMap<String, boolean[]>();
+
+}
@@ -0,0 +1,135 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the LaneConverter class.
+ *  @author Smit Malde
+ */
+public class LaneConverterTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTS ***** */
+
+    private static final Alphabet AZ = new Alphabet(TestUtils.UPPER_STRING);
+
+    /** Names and notches of the moving rotors in spec(). */
+    private static final String[] MOVING = { "I", "II", "III", "VI", "VIII" };
+    private static final String[] NOTCHES = { "Q", "E", "V", "ZM", "ZM" };
+
+    /** A specification with the naval reflectors B and C, fixed rotors
+     *  Beta and Gamma, and the moving rotors in MOVING. */
+    private static MachineSpec spec() {
+        return TestUtils.navalSpec(AZ, 5, 3, new String[] { "B", "C" },
+                                   new String[] { "Beta", "Gamma" },
+                                   MOVING, NOTCHES);
+    }
+
+    /** Return a random state for a machine of SPEC, drawn from RANDOM. */
+    private static MachineState randomState(MachineSpec spec,
+                                            Random random) {
+        Machine mach = spec.newMachine();
+        String[] rotors = new String[5];
+        rotors[0] = random.nextBoolean() ? "B" : "C";
+        rotors[1] = random.nextBoolean() ? "Beta" : "Gamma";
+        ArrayList<String> moving = new ArrayList<String>();
+        for (String name : MOVING) {
+            moving.add(name);
+        }
+        for (int k = 2; k < 5; k += 1) {
+            rotors[k] = moving.remove(random.nextInt(moving.size()));
+        }
+        mach.insertRotors(rotors);
+        StringBuilder settings = new StringBuilder(),
+            rings = new StringBuilder();
+        for (int k = 1; k < 5; k += 1) {
+            settings.append(AZ.toChar(random.nextInt(26)));
+            rings.append(AZ.toChar(random.nextInt(26)));
+        }
+        mach.setRotors(settings.toString());
+        mach.setRingSetting(rings.toString());
+        StringBuilder plugboard = new StringBuilder();
+        ArrayList<Character> letters = new ArrayList<Character>();
+        for (char ch : TestUtils.UPPER_STRING.toCharArray()) {
+            letters.add(ch);
+        }
+        for (int pairs = random.nextInt(11); pairs > 0; pairs -= 1) {
+            plugboard.append('(')
+                .append(letters.remove(random.nextInt(letters.size())))
+                .append(letters.remove(random.nextInt(letters.size())))
+                .append(')');
+        }
+        mach.setPlugboard(new Permutation(plugboard.toString(), AZ));
+        return mach.state();
+    }
+
+    /** Return the scalar converter for SPEC, and the one chosen by
+     *  LaneConverter.forSpec, which uses the Vector API when it is
+     *  built in. */
+    private static LaneConverter[] converters(MachineSpec spec) {
+        return new LaneConverter[] {
+            new LaneConverter(spec), LaneConverter.forSpec(spec)
+        };
+    }
+
+    @Test
+    public void testMatchesMachine() {
+        MachineSpec spec = spec();
+        Random random = new Random(18);
+        int lanes = 300;
+        MachineState[] keys = new MachineState[lanes];
+        String[] msgs = new String[lanes];
+        for (int l = 0; l < lanes; l += 1) {
+            keys[l] = randomState(spec, random);
+            StringBuilder msg = new StringBuilder();
+            for (int i = random.nextInt(l % 10 == 0 ? 2000 : 80); i > 0;
+                 i -= 1) {
+                msg.append(random.nextInt(6) == 0 ? ' '
+                           : AZ.toChar(random.nextInt(26)));
+            }
+            msgs[l] = msg.toString();
+        }
+        Machine mach = spec.newMachine();
+        for (LaneConverter converter : converters(spec)) {
+            String[] converted = converter.convert(keys, msgs);
+            for (int l = 0; l < lanes; l += 1) {
+                mach.restore(keys[l]);
+                assertEquals(keys[l].toString(), mach.convert(msgs[l]),
+                             converted[l]);
+            }
+        }
+    }
+
+    @Test
+    public void testDoubleStep() {
+        MachineSpec spec = spec();
+        Machine mach = spec.newMachine();
+        mach.insertRotors(new String[] { "B", "Beta", "III", "II", "I" });
+        mach.setRotors("AADQ");
+        MachineState key = mach.state();
+        String expected = mach.convert("AAAAA");
+        for (LaneConverter converter : converters(spec)) {
+            String[] converted = converter.convert(
+                new MachineState[] { key }, new String[] { "AAAAA" });
+            assertEquals(expected, converted[0]);
+        }
+        assertEquals(AZ.toInt('B'), mach.getRotor(2).setting());
+        assertEquals(AZ.toInt('F'), mach.getRotor(3).setting());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testMismatchedKeys() {
+        MachineSpec spec = spec();
+        new LaneConverter(spec).convert(
+            new MachineState[] { randomState(spec, new Random(1)) },
+            new String[0]);
+    }
+
+}
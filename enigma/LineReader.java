@@ -0,0 +1,176 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** A source of input lines that reads its Reader in large blocks and
+ *  hands out each line as a range of a reused character buffer, so
+ *  that reading a line allocates nothing.  Lines end at "\n", "\r", or
+ *  "\r\n"; the terminator is not part of the line.
+ *  @author Smit Malde
+ */
+class LineReader implements Closeable {
+
+    /** A LineReader taking its characters from SOURCE. */
+    LineReader(Reader source) {
+        _source = source;
+        _buffer = new char[BUFFER_SIZE];
+    }
+
+    /** Move to the next line, returning false if there is none.  The
+     *  previous line's characters are no longer valid afterwards. */
+    boolean next() {
+        if (_pushedBack) {
+            _pushedBack = false;
+            return true;
+        }
+        if (_skipLF) {
+            if (_pos == _limit && !fill()) {
+                return false;
+            }
+            if (_buffer[_pos] == '\n') {
+                _pos += 1;
+            }
+            _skipLF = false;
+        }
+        int scanned = 0;
+        while (true) {
+            int i = _pos + scanned;
+            while (i < _limit && _buffer[i] != '\n' && _buffer[i] != '\r') {
+                i += 1;
+            }
+            if (i < _limit) {
+                _start = _pos;
+                _length = i - _pos;
+                if (_buffer[i] == '\r') {
+                    if (i + 1 == _limit) {
+                        _skipLF = true;
+                    } else if (_buffer[i + 1] == '\n') {
+                        i += 1;
+                    }
+                }
+                _pos = i + 1;
+                return true;
+            }
+            scanned = i - _pos;
+            if (!fill()) {
+                if (scanned == 0) {
+                    return false;
+                }
+                _start = _pos;
+                _length = scanned;
+                _pos = _limit;
+                return true;
+            }
+        }
+    }
+
+    /** Arrange for the next call to next() to return to the current
+     *  line rather than advancing past it. */
+    void pushBack() {
+        _pushedBack = true;
+    }
+
+    /** Return the buffer holding the current line. */
+    char[] buffer() {
+        return _buffer;
+    }
+
+    /** Return the index in buffer() of the current line's first
+     *  character. */
+    int start() {
+        return _start;
+    }
+
+    /** Return the number of characters in the current line. */
+    int length() {
+        return _length;
+    }
+
+    /** Return the current line as a String. */
+    String line() {
+        return new String(_buffer, _start, _length);
+    }
+
+    /** Return true iff the current line contains only whitespace. */
+    boolean blank() {
+        for (int i = _start; i < _start + _length; i += 1) {
+            if (!Character.isWhitespace(_buffer[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return true iff the first non-whitespace character of the current
+     *  line is an asterisk that stands by itself as a token. */
+    boolean settingLine() {
+        int end = _start + _length;
+        int i = _start;
+        while (i < end && Character.isWhitespace(_buffer[i])) {
+            i += 1;
+        }
+        return i < end && _buffer[i] == '*'
+            && (i + 1 == end || Character.isWhitespace(_buffer[i + 1]));
+    }
+
+    /** Discard the characters before _pos, enlarge the buffer if it is
+     *  full, and read more input after what remains.  Returns false at
+     *  the end of input. */
+    private boolean fill() {
+        if (_pos > 0) {
+            System.arraycopy(_buffer, _pos, _buffer, 0, _limit - _pos);
+            _limit -= _pos;
+            _pos = 0;
+        }
+        if (_limit == _buffer.length) {
+            _buffer = Arrays.copyOf(_buffer, 2 * _buffer.length);
+        }
+        try {
+            int n = _source.read(_buffer, _limit, _buffer.length - _limit);
+            if (n < 0) {
+                return false;
+            }
+            _limit += n;
+            return true;
+        } catch (IOException excp) {
+            throw error("error reading input: %s", excp.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        _source.close();
+    }
+
+    /** Initial size of the character buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Source of characters. */
+    private final Reader _source;
+
+    /** Characters read and not yet discarded. */
+    private char[] _buffer;
+
+    /** Index of the first character after the current line and its
+     *  terminator. */
+    private int _pos;
+
+    /** Index just past the valid characters in _buffer. */
+    private int _limit;
+
+    /** Start and length of the current line in _buffer. */
+    private int _start, _length;
+
+    /** True iff the last line ended with '\r' at the end of the buffer,
+     *  so that a following '\n' belongs to it. */
+    private boolean _skipLF;
+
+    /** True iff next() is to return to the current line. */
+    private boolean _pushedBack;
+
+}
@@ -0,0 +1,63 @@
+package enigma;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the LineReader class.
+ *  @author Smit Malde
+ */
+public class LineReaderTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testTerminators() {
+        LineReader lines =
+            new LineReader(new StringReader("* B\r\nAB\rCD\n\n  \nEF"));
+        String[] expected = { "* B", "AB", "CD", "", "  ", "EF" };
+        for (String line : expected) {
+            assertTrue(lines.next());
+            assertEquals(line, lines.line());
+        }
+        assertFalse(lines.next());
+    }
+
+    @Test
+    public void testPushBackAndKinds() {
+        LineReader lines = new LineReader(new StringReader("  * B\n*B\n\t\n"));
+        assertTrue(lines.next());
+        assertTrue(lines.settingLine());
+        lines.pushBack();
+        assertTrue(lines.next());
+        assertEquals("  * B", lines.line());
+        assertTrue(lines.next());
+        assertFalse(lines.settingLine());
+        assertTrue(lines.next());
+        assertTrue(lines.blank());
+        assertFalse(lines.next());
+    }
+
+    @Test
+    public void testLongLines() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200000; i += 1) {
+            text.append((char) ('A' + i % 26));
+        }
+        text.append("\r");
+        LineReader lines = new LineReader(new StringReader(text + "\nX"));
+        assertTrue(lines.next());
+        assertEquals(200000, lines.length());
+        assertTrue(lines.next());
+        assertEquals("X", lines.line());
+        assertFalse(lines.next());
+    }
+
+}
@@ -1,8 +1,12 @@
 package enigma;
 
+import java.nio.BufferOverflowException;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import static enigma.EnigmaException.*;
 
@@ -16,16 +20,87 @@ class Machine {
      *  available rotors. */
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
-        _plugboard = new Permutation("", alpha);
-        _alphabet = alpha;
-        _rotorSlots = numRotors;
-        _numPawls = pawls;
+        this(new MachineSpec(alpha, numRotors, pawls, allRotors));
+    }
+
+    /** A new Enigma machine as specified by SPEC, which I share with
+     *  any other machines made from it.  I get my own copy of each rotor
+     *  I insert, so I may be used independently of those machines. */
+    Machine(MachineSpec spec) {
+        _spec = spec;
+        _plugboard = new Permutation("", spec.alphabet());
+        _alphabet = spec.alphabet();
+        _rotorSlots = spec.numRotors();
+        _numPawls = spec.numPawls();
         _allrotors = new ArrayList<Rotor>();
-        _allrotors.addAll(allRotors);
-        _hashRotors = new HashMap<String, Rotor>();
-        for (Rotor r: allRotors) {
-            _hashRotors.put(r.name(), r);
+        for (int i = 0; i < _rotorSlots; i += 1) {
+            _allrotors.add(null);
+        }
+        _moving = new Rotor[_numPawls];
+    }
+
+    /** Return a new machine in my current state, with its own copies of
+     *  my rotors, so that it may be used independently of me (and from
+     *  another thread).  It reports to no tracer. */
+    Machine copy() {
+        Machine result = new Machine(_spec);
+        for (int i = 0; i < _rotorSlots; i += 1) {
+            Rotor r = _allrotors.get(i);
+            result.setSlot(i, r == null ? null : r.copy());
+        }
+        result._plugboard = _plugboard;
+        result._reflection = _reflection;
+        result._tableDriven = _tableDriven;
+        result._engine = _engine;
+        return result;
+    }
+
+    /** Return the specification I was made from. */
+    MachineSpec spec() {
+        return _spec;
+    }
+
+    /** Return my current rotors, settings, ring settings, and
+     *  plugboard. */
+    MachineState state() {
+        String[] names = new String[_rotorSlots];
+        int[] settings = new int[_rotorSlots], rings = new int[_rotorSlots];
+        for (int i = 0; i < _rotorSlots; i += 1) {
+            Rotor r = _allrotors.get(i);
+            if (r == null) {
+                throw error("no rotors inserted");
+            }
+            names[i] = r.name();
+            settings[i] = r.setting();
+            rings[i] = r.ringSetting();
+        }
+        return new MachineState(names, settings, rings, _plugboard);
+    }
+
+    /** Put me in STATE, as returned by state() on a machine with my
+     *  specification.  Rotors already in the right slots are reused. */
+    void restore(MachineState state) {
+        if (state.numRotors() != _rotorSlots) {
+            throw error("state is for a machine with %d rotors",
+                        state.numRotors());
+        }
+        String[] names = new String[_rotorSlots];
+        for (int i = 0; i < _rotorSlots; i += 1) {
+            names[i] = _allrotors.get(i) == null ? null
+                : _allrotors.get(i).name();
         }
+        if (!state.sameRotors(names)) {
+            for (int i = 0; i < _rotorSlots; i += 1) {
+                names[i] = state.rotor(i);
+            }
+            insertRotors(names);
+        }
+        for (int i = 0; i < _rotorSlots; i += 1) {
+            setRing(i, state.ringSetting(i));
+            _allrotors.get(i).set(state.setting(i));
+        }
+        _plugboard = state.plugboard();
+        _reflection = null;
     }
 
     /** Return the number of rotor slots I have. */
@@ -45,6 +120,22 @@ class Machine {
         return _allrotors.get(k);
     }
 
+    /** Return my pawled rotors, leftmost first.  The array is shared,
+     *  kept up to date as rotors are inserted, and must not be
+     *  modified. */
+    Rotor[] movingRotors() {
+        return _moving;
+    }
+
+    /** Put ROTOR in slot K. */
+    private void setSlot(int k, Rotor rotor) {
+        _allrotors.set(k, rotor);
+        int first = _rotorSlots - _numPawls;
+        if (k >= first) {
+            _moving[k - first] = rotor;
+        }
+    }
+
     Alphabet alphabet() {
         return _alphabet;
     }
@@ -53,47 +144,116 @@ class Machine {
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
+        if (rotors.length != _rotorSlots) {
+            throw error("wrong number of rotors: %d", rotors.length);
+        }
+        Rotor[] inserted = new Rotor[rotors.length];
         int numMovingRotors = 0;
         for (int i = 0; i < rotors.length; i++) {
-            if (!_hashRotors.containsKey(rotors[i])) {
-                throw new EnigmaException("Rotor doesnt exist in _config!");
-            }
-            if (_hashRotors.get(rotors[i]).rotates()) {
+            inserted[i] = _spec.newRotor(rotors[i], 0, _tableDriven);
+            if (inserted[i].rotates()) {
                 numMovingRotors++;
             }
-            _allrotors.set(i, _hashRotors.get(rotors[i]));
         }
         if (numMovingRotors != numPawls()) {
             throw new EnigmaException("Moving rotors and pawls are not equal!");
         }
-        if (!_allrotors.get(0).reflecting()) {
+        if (!inserted[0].reflecting()) {
             throw new EnigmaException("Machine reflector not in 1st slot!");
         }
         for (int i = 1; i < rotors.length; i++) {
-            if (!_allrotors.get(i).rotates()) {
-                if (_allrotors.get(i - 1).rotates()) {
+            if (!inserted[i].rotates()) {
+                if (inserted[i - 1].rotates()) {
                     throw new EnigmaException("Rotors arranged incorrectly!");
                 }
             }
         }
+        for (int i = 0; i < rotors.length; i++) {
+            setSlot(i, inserted[i]);
+        }
+        _reflection = null;
     }
 
     /** Set my rotors according to SETTING, which must be a string of
      *  numRotors()-1 characters in my alphabet. The first letter refers
      *  to the leftmost rotor setting (not counting the reflector).  */
     void setRotors(String setting) {
+        if (setting.length() != _rotorSlots - 1) {
+            throw error("wrong number of rotor settings: %s", setting);
+        }
         for (int i = 0; i < setting.length(); i++) {
             _allrotors.get(i + 1).set(setting.charAt(i));
         }
+        _reflection = null;
+    }
+
+    /** Set the rotor in slot K + 1 to setting SETTING[K], for each K,
+     *  as for setRotors(String). */
+    void setRotors(int[] setting) {
+        if (setting.length != _rotorSlots - 1) {
+            throw error("wrong number of rotor settings: %d",
+                        setting.length);
+        }
+        for (int i = 0; i < setting.length; i++) {
+            _allrotors.get(i + 1).set(setting[i]);
+        }
+        _reflection = null;
     }
 
     /** Set my rotors according to ringSetting.
      * @param ringSetting  */
     void setRingSetting(String ringSetting) {
+        if (ringSetting.length() != _rotorSlots - 1) {
+            throw error("wrong number of ring settings: %s", ringSetting);
+        }
         for (int i = 0; i < ringSetting.length(); i++) {
-            _allrotors.get(i + 1).setRingSetting(
-                    _alphabet.toInt(ringSetting.charAt(i)));
+            char ring = ringSetting.charAt(i);
+            if (!_alphabet.contains(ring)) {
+                throw error("'%c' is not a ring setting", ring);
+            }
+            setRing(i + 1, _alphabet.toInt(ring));
         }
+        _reflection = null;
+    }
+
+    /** Give the rotor in slot K ring setting RING, leaving its setting
+     *  as it is.  The rotor is replaced by one from my specification
+     *  whose tables are already built for RING. */
+    private void setRing(int k, int ring) {
+        Rotor old = _allrotors.get(k);
+        if (old.ringSetting() != ring) {
+            Rotor rotor = _spec.newRotor(old.name(), ring, _tableDriven);
+            rotor.set(old.setting());
+            setSlot(k, rotor);
+        }
+    }
+
+    /** Return true iff my rotors convert through precomputed tables. */
+    boolean tableDriven() {
+        return _tableDriven;
+    }
+
+    /** Have the rotors I insert convert through tables precomputed
+     *  for their ring settings iff ON (the default), trading
+     *  2 * size * size ints per rotor for less arithmetic per
+     *  character.  Applies to rotors inserted from now on.  Equivalent
+     *  to using the table engine if ON, and the reference engine if
+     *  not. */
+    void setTableDriven(boolean on) {
+        setEngine(on ? ConversionEngine.TABLE : ConversionEngine.REFERENCE);
+    }
+
+    /** Return the engine through which I convert runs of characters. */
+    ConversionEngine engine() {
+        return _engine;
+    }
+
+    /** Convert runs of characters through ENGINE from now on (the table
+     *  engine by default).  The rotors I insert from now on use tables
+     *  iff ENGINE does. */
+    void setEngine(ConversionEngine engine) {
+        _engine = engine;
+        _tableDriven = engine.tableDriven();
     }
 
     /** Return the current plugboard's permutation. */
@@ -111,26 +271,51 @@ class Machine {
      *  the machine. */
     int convert(int c) {
         advanceRotors();
-        if (Main.verbose()) {
-            System.err.printf("[");
-            for (int r = 1; r < numRotors(); r += 1) {
-                System.err.printf("%c",
-                        alphabet().toChar(getRotor(r).setting()));
-            }
-            System.err.printf("] %c -> ", alphabet().toChar(c));
+        if (_tracer.enabled()) {
+            return tracedConvert(c);
         }
         c = plugboard().permute(c);
-        if (Main.verbose()) {
-            System.err.printf("%c -> ", alphabet().toChar(c));
-        }
         c = applyRotors(c);
+        return plugboard().permute(c);
+    }
+
+    /** Return the conversion of C, as for convert(int) once my rotors
+     *  have advanced, reporting each step to my tracer. */
+    private int tracedConvert(int c) {
+        StringBuilder settings = new StringBuilder();
+        for (int r = 1; r < numRotors(); r += 1) {
+            settings.append(alphabet().toChar(getRotor(r).setting()));
+        }
+        _tracer.begin(settings, alphabet().toChar(c));
         c = plugboard().permute(c);
-        if (Main.verbose()) {
-            System.err.printf("%c%n", alphabet().toChar(c));
+        _tracer.hop(alphabet().toChar(c));
+        if (c > alphabet().size() - 1) {
+            throw new EnigmaException(c + " is out of range");
+        }
+        for (int i = _rotorSlots - 1; i >= 0; i--) {
+            c = _allrotors.get(i).convertForward(c);
+            _tracer.hop(alphabet().toChar(_allrotors.get(i).contact(c)));
         }
+        for (int i = 1; i < _rotorSlots; i++) {
+            c = _allrotors.get(i).convertBackward(c);
+            _tracer.hop(alphabet().toChar(_allrotors.get(i).contact(c)));
+        }
+        c = plugboard().permute(c);
+        _tracer.end(alphabet().toChar(c));
         return c;
     }
 
+    /** Return the tracer that receives an account of each conversion. */
+    Tracer tracer() {
+        return _tracer;
+    }
+
+    /** Report each conversion to TRACER from now on (Tracer.NONE, the
+     *  default, for no reports). */
+    void setTracer(Tracer tracer) {
+        _tracer = tracer;
+    }
+
     /** Advance all rotors to their next position. */
     private void advanceRotors() {
         for (int i = 1; i < numRotors() - 1; i++) {
@@ -147,35 +332,374 @@ class Machine {
         _allrotors.get(numRotors() - 1).advance();
     }
 
+    /** Advance my rotors to where they would be after converting N more
+     *  characters, without converting any.  Apart from the first step,
+     *  the new settings are computed directly from the notch positions
+     *  in time proportional to the square of the number of pawls, except
+     *  when a rotor whose notches matter has two notches at consecutive
+     *  settings: the double-stepping rotors then do not leave a notch
+     *  right after reaching it, and I simply step N times. */
+    void advance(long n) {
+        if (n < 0) {
+            throw error("cannot advance by %d characters", n);
+        }
+        if (n == 0 || _numPawls == 0) {
+            return;
+        }
+        advanceRotors();
+        long steps = n - 1;
+        if (steps == 0) {
+            return;
+        }
+        if (!separatedNotches()) {
+            for (; steps > 0; steps -= 1) {
+                advanceRotors();
+            }
+            return;
+        }
+        int first = _rotorSlots - _numPawls, depth = _numPawls + 1;
+        long[][] advances = new long[_rotorSlots][depth + 1];
+        for (int d = 0; d <= depth; d += 1) {
+            advances[_rotorSlots - 1][d] = Math.max(0, steps - d);
+        }
+        for (int i = _rotorSlots - 2; i >= first; i -= 1) {
+            Rotor rotor = _allrotors.get(i), right = _allrotors.get(i + 1);
+            boolean doubleSteps = _allrotors.get(i - 1).rotates();
+            for (int d = 0; d < depth && steps - d > 0; d += 1) {
+                long carries = notchesPassed(right, advances[i + 1][d]);
+                if (!doubleSteps) {
+                    advances[i][d] = carries;
+                } else {
+                    boolean lastCarry =
+                        carries > notchesPassed(right, advances[i + 1][d + 1]);
+                    advances[i][d] =
+                        doubleStepped(rotor, carries, lastCarry);
+                }
+            }
+        }
+        for (int i = first; i < _rotorSlots; i += 1) {
+            Rotor rotor = _allrotors.get(i);
+            rotor.set((int) ((rotor.setting() + advances[i][0])
+                             % rotor.size()));
+        }
+    }
+
+    /** Return true iff no pawled rotor, other than the leftmost, has
+     *  notches at two consecutive settings. */
+    private boolean separatedNotches() {
+        for (int i = _rotorSlots - _numPawls + 1; i < _rotorSlots; i += 1) {
+            Rotor rotor = _allrotors.get(i);
+            int n = rotor.size();
+            for (int p = 0; p < n; p += 1) {
+                if (rotor.notchAt(p) && rotor.notchAt((p + 1) % n)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Return the number of notches ROTOR leaves if it advances K times
+     *  from its current setting. */
+    private static long notchesPassed(Rotor rotor, long k) {
+        int n = rotor.size(), perTurn = 0, partial = 0;
+        for (int p = 0; p < n; p += 1) {
+            if (rotor.notchAt(p)) {
+                perTurn += 1;
+            }
+        }
+        for (int j = 0; j < k % n; j += 1) {
+            if (rotor.notchAt((rotor.setting() + j) % n)) {
+                partial += 1;
+            }
+        }
+        return (k / n) * perTurn + partial;
+    }
+
+    /** Return the number of times a double-stepping ROTOR advances, from
+     *  its current setting, when the rotor to its right carries it
+     *  CARRIES times, the last of them on the final step iff LASTCARRY.
+     *  Each carry that leaves ROTOR at a notch is followed by a second
+     *  step on the next key press, which has not happened yet if that
+     *  carry came on the final step. */
+    private static long doubleStepped(Rotor rotor, long carries,
+                                      boolean lastCarry) {
+        int n = rotor.size(), start = rotor.setting(), open = 0;
+        for (int p = 0; p < n; p += 1) {
+            if (!rotor.notchAt(p)) {
+                open += 1;
+            }
+        }
+        long k = 0;
+        if (carries > 0) {
+            long turns = (carries - 1) / open;
+            long rest = carries - turns * open;
+            k = turns * n;
+            for (int p = start; rest > 0; p = (p + 1) % n) {
+                if (!rotor.notchAt(p)) {
+                    rest -= 1;
+                }
+                k += 1;
+            }
+        }
+        if (!lastCarry && rotor.notchAt((int) ((start + k) % n))) {
+            k += 1;
+        }
+        return k;
+    }
+
+    /** Fill PERM with the conversion of each index by my rotors alone,
+     *  at their current settings, without advancing them or applying
+     *  the plugboard. */
+    void scrambler(int[] perm) {
+        for (int c = 0; c < perm.length; c++) {
+            perm[c] = applyRotors(c);
+        }
+    }
+
     /** Return the result of applying the rotors to the character C (as an
      *  index in the range 0..alphabet size - 1). */
     private int applyRotors(int c) {
         if (c > alphabet().size() - 1) {
             throw new EnigmaException(c + " is out of range");
         }
-        for (int i = _rotorSlots - 1; i >= 0; i--) {
+        if (_reflection == null) {
+            foldStaticRotors();
+        }
+        int first = _rotorSlots - _numPawls;
+        for (int i = _rotorSlots - 1; i >= first; i--) {
             c = _allrotors.get(i).convertForward(c);
         }
-        for (int i = 1; i < _rotorSlots; i++) {
+        c = _reflection[c];
+        for (int i = first; i < _rotorSlots; i++) {
             c = _allrotors.get(i).convertBackward(c);
         }
         return c;
     }
 
+    /** Return the combined conversion through my non-moving rotors,
+     *  from the leftmost pawled rotor back to it, at their current
+     *  settings.  The result is shared, and must not be modified. */
+    int[] reflection() {
+        if (_reflection == null) {
+            foldStaticRotors();
+        }
+        return _reflection;
+    }
+
+    /** Compose the rotors that never move (the reflector and any fixed
+     *  rotors to its right), forward and back, into _reflection.  Their
+     *  settings only change through insertRotors, setRotors, and
+     *  setRingSetting, each of which discards the result. */
+    private void foldStaticRotors() {
+        int first = _rotorSlots - _numPawls, n = _alphabet.size();
+        int[] fold = new int[n], step = new int[n];
+        for (int p = 0; p < n; p++) {
+            fold[p] = p;
+        }
+        for (int i = first - 1; i >= 0; i--) {
+            _allrotors.get(i).conversions(false, step);
+            Permutation.compose(fold, step, fold);
+        }
+        for (int i = 1; i < first; i++) {
+            _allrotors.get(i).conversions(true, step);
+            Permutation.compose(fold, step, fold);
+        }
+        _reflection = fold;
+    }
+
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        StringBuilder encrypt = new StringBuilder();
-        for (int i = 0; i < msg.length(); i++) {
-            if (msg.charAt(i) == ' ') {
-                continue;
+        char[] encrypt = msg.toCharArray();
+        int len = convert(encrypt, 0, encrypt.length, encrypt, 0);
+        return new String(encrypt, 0, len);
+    }
+
+    /** Convert the LEN characters of SRC starting at SRCOFF, skipping
+     *  blanks as for convert(String), into DST starting at DSTOFF,
+     *  updating the state of the rotors accordingly.  Returns the number
+     *  of characters stored, which is at most LEN.  DST may be SRC, so
+     *  long as DSTOFF <= SRCOFF. */
+    int convert(char[] src, int srcOff, int len, char[] dst, int dstOff) {
+        int j = dstOff;
+        if (_tracer.enabled()) {
+            for (int i = srcOff; i < srcOff + len; i++) {
+                if (src[i] == ' ') {
+                    continue;
+                }
+                dst[j] = _alphabet.toChar(convert(_alphabet.toInt(src[i])));
+                j += 1;
+            }
+            Metrics.get().converted(j - dstOff);
+            return j - dstOff;
+        }
+        int[] indices = scratch(Math.min(len, SCRATCH_SIZE));
+        int n = _alphabet.size();
+        for (int i = srcOff, end = srcOff + len; i < end;) {
+            int count = 0;
+            for (; i < end && count < indices.length; i++) {
+                if (src[i] != ' ') {
+                    int c = _alphabet.toInt(src[i]);
+                    indices[count] = c < 0 ? n - 1 : c;
+                    count += 1;
+                }
+            }
+            _engine.convert(this, indices, 0, count);
+            for (int k = 0; k < count; k++) {
+                dst[j] = _alphabet.toChar(indices[k]);
+                j += 1;
             }
-            int converted = convert(_alphabet.toInt(msg.charAt(i)));
-            encrypt.append(_alphabet.toChar(converted));
         }
-        return encrypt.toString();
+        Metrics.get().converted(j - dstOff);
+        return j - dstOff;
     }
 
+    /** Return my scratch array of indices, with at least LEN
+     *  elements. */
+    private int[] scratch(int len) {
+        if (_scratch == null || _scratch.length < len) {
+            _scratch = new int[len];
+        }
+        return _scratch;
+    }
+
+    /** Convert the remaining characters of SRC, skipping blanks as for
+     *  convert(String), into DST, advancing the positions of both
+     *  buffers.  Returns the number of characters put into DST.  Throws
+     *  BufferOverflowException, having converted nothing, if DST has
+     *  too little room. */
+    int convert(CharBuffer src, CharBuffer dst) {
+        int needed = 0;
+        for (int i = src.position(); i < src.limit(); i++) {
+            if (src.get(i) != ' ') {
+                needed += 1;
+            }
+        }
+        if (dst.remaining() < needed) {
+            throw new BufferOverflowException();
+        }
+        if (src.hasArray() && dst.hasArray() && !dst.isReadOnly()) {
+            int count = convert(src.array(),
+                                src.arrayOffset() + src.position(),
+                                src.remaining(), dst.array(),
+                                dst.arrayOffset() + dst.position());
+            src.position(src.limit());
+            dst.position(dst.position() + count);
+            return count;
+        }
+        int start = dst.position();
+        while (src.hasRemaining()) {
+            char ch = src.get();
+            if (ch != ' ') {
+                dst.put(_alphabet.toChar(convert(_alphabet.toInt(ch))));
+            }
+        }
+        Metrics.get().converted(dst.position() - start);
+        return dst.position() - start;
+    }
+
+    /** Returns the encoding/decoding of MSG, as for convert(String),
+     *  converting long messages in pieces on the common fork/join pool. */
+    String convertParallel(String msg) {
+        char[] text = msg.toCharArray();
+        char[] encrypt = new char[text.length];
+        int len = convertParallel(text, 0, text.length, encrypt, 0,
+                                  ForkJoinPool.commonPool());
+        return new String(encrypt, 0, len);
+    }
+
+    /** Convert the LEN characters of SRC starting at SRCOFF into DST
+     *  starting at DSTOFF exactly as convert(char[], int, int, char[],
+     *  int) would, leaving my rotors in the same state, but dividing
+     *  messages of more than PARALLEL_CHUNK characters into pieces that
+     *  are converted concurrently in POOL.  Each piece is converted by
+     *  a copy of me advanced to the piece's first character.  The copies
+     *  are made in one pass, each advanced from the last, so the work
+     *  stays linear even when advance must step one character at a
+     *  time.  DST must not overlap SRC.  Returns the number of
+     *  characters stored. */
+    int convertParallel(char[] src, int srcOff, int len,
+                        char[] dst, int dstOff, ForkJoinPool pool) {
+        if (len <= PARALLEL_CHUNK || _tracer.enabled()) {
+            return convert(src, srcOff, len, dst, dstOff);
+        }
+        int pieces = (len + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK;
+        int[] before = new int[pieces + 1];
+        for (int k = 0; k < pieces; k += 1) {
+            int end = Math.min(len, (k + 1) * PARALLEL_CHUNK);
+            int count = 0;
+            for (int i = srcOff + k * PARALLEL_CHUNK; i < srcOff + end; i++) {
+                if (src[i] != ' ') {
+                    count += 1;
+                }
+            }
+            before[k + 1] = before[k] + count;
+        }
+        Machine cursor = copy();
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        for (int k = 0; k < pieces; k += 1) {
+            final int piece = k;
+            final Machine local = cursor.copy();
+            cursor.advance(before[k + 1] - before[k]);
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    int start = piece * PARALLEL_CHUNK;
+                    local.convert(src, srcOff + start,
+                                  Math.min(len - start, PARALLEL_CHUNK),
+                                  dst, dstOff + before[piece]);
+                }
+            });
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        for (int i = _rotorSlots - _numPawls; i < _rotorSlots; i += 1) {
+            _allrotors.get(i).set(cursor.getRotor(i).setting());
+        }
+        return before[pieces];
+    }
+
+    /** Number of characters converted by each task in
+     *  convertParallel. */
+    static final int PARALLEL_CHUNK = 1 << 16;
+
+    /** Convert in place the LEN alphabet indices in MSG starting at
+     *  OFF, updating the state of the rotors accordingly. */
+    void convert(int[] msg, int off, int len) {
+        if (_tracer.enabled()) {
+            for (int i = off; i < off + len; i++) {
+                msg[i] = convert(msg[i]);
+            }
+        } else {
+            _engine.convert(this, msg, off, len);
+        }
+        Metrics.get().converted(len);
+    }
+
+    /** Convert in place the LEN alphabet indices in MSG starting at OFF,
+     *  each stored as an unsigned byte, updating the state of the
+     *  rotors accordingly.  My alphabet may have at most 256
+     *  characters.  Unless I am tracing, they are converted through
+     *  my engine. */
+    void convert(byte[] msg, int off, int len) {
+        Metrics.get().converted(len);
+        if (_tracer.enabled()) {
+            for (int i = off; i < off + len; i++) {
+                msg[i] = (byte) convert(msg[i] & BYTE_MASK);
+            }
+            return;
+        }
+        _engine.convert(this, msg, off, len);
+    }
+
+    /** Mask extracting an unsigned value from a byte. */
+    private static final int BYTE_MASK = 0xff;
+
     /** Common alphabet of my rotors. */
     private final Alphabet _alphabet;
 
@@ -188,11 +712,33 @@ class Machine {
     /** Permutation for plugboard. */
     private Permutation _plugboard;
 
-    /** A list containing all inserted rotors. */
+    /** The rotors in each slot, or null before any are inserted. */
     private ArrayList<Rotor> _allrotors;
 
-    /** A hashmap containing all rotors. */
-    private HashMap<String, Rotor> _hashRotors;
+    /** The rotors in my pawled slots, leftmost first, as returned by
+     *  movingRotors. */
+    private final Rotor[] _moving;
+
+    /** The specification I was made from. */
+    private final MachineSpec _spec;
+
+    /** The combined conversion through my non-moving rotors, from the
+     *  leftmost pawled rotor back to it, or null if out of date. */
+    private int[] _reflection;
+
+    /** Receives an account of each conversion. */
+    private Tracer _tracer = Tracer.NONE;
+
+    /** True iff inserted rotors use precomputed tables. */
+    private boolean _tableDriven = true;
+
+    /** Converts runs of characters for me when I am not tracing. */
+    private ConversionEngine _engine = ConversionEngine.TABLE;
+
+    /** Indices being converted by _engine, or null until needed. */
+    private int[] _scratch;
 
+    /** Most characters converted by each call on _engine. */
+    private static final int SCRATCH_SIZE = 1 << 12;
 
 }
@@ -0,0 +1,155 @@
+package enigma;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/** The parts of an Enigma machine fixed by its configuration: its
+ *  alphabet, its numbers of rotor slots and pawls, and the rotors
+ *  available to it.  A MachineSpec never changes once made, so any
+ *  number of Machines, on any number of threads, may share one; each
+ *  Machine inserts its own copies of the rotors it uses.
+ *  @author Smit Malde
+ */
+class MachineSpec {
+
+    /** A specification for machines with alphabet ALPHA, 1 < NUMROTORS
+     *  rotor slots, and 0 <= PAWLS < NUMROTORS pawls, which may use any
+     *  of ALLROTORS.  ALLROTORS are copied at their 0 settings, so
+     *  later changes to them do not affect me. */
+    MachineSpec(Alphabet alpha, int numRotors, int pawls,
+                Collection<Rotor> allRotors) {
+        if (numRotors <= 1 || pawls < 0 || pawls >= numRotors) {
+            throw error("bad numbers of rotor slots (%d) and pawls (%d)",
+                        numRotors, pawls);
+        }
+        _alphabet = alpha;
+        _numRotors = numRotors;
+        _numPawls = pawls;
+        LinkedHashMap<String, Rotor> rotors =
+            new LinkedHashMap<String, Rotor>();
+        for (Rotor r : allRotors) {
+            Rotor prototype = r.copy();
+            prototype.setTableDriven(false);
+            prototype.setRingSetting(0);
+            prototype.set(0);
+            rotors.put(r.name(), prototype);
+        }
+        _rotors = rotors;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotor slots in my machines. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return the number of pawls (and thus rotating rotors) in my
+     *  machines. */
+    int numPawls() {
+        return _numPawls;
+    }
+
+    /** Return the names of the rotors available to my machines, in the
+     *  order in which they were given. */
+    Set<String> rotorNames() {
+        return Collections.unmodifiableSet(_rotors.keySet());
+    }
+
+    /** Return true iff a rotor named NAME is available. */
+    boolean hasRotor(String name) {
+        return _rotors.containsKey(name);
+    }
+
+    /** Return a new rotor named NAME, at its 0 setting and ring
+     *  setting, for a single machine's use. */
+    Rotor newRotor(String name) {
+        Rotor prototype = _rotors.get(name);
+        if (prototype == null) {
+            throw error("Rotor doesnt exist in _config!");
+        }
+        return prototype.copy();
+    }
+
+    /** Return a new rotor named NAME at its 0 setting and ring setting
+     *  RING, converting through precomputed tables iff TABLEDRIVEN.
+     *  Tables are built once for each rotor and ring setting and shared
+     *  by all the rotors given out, until they take more than
+     *  TABLE_CACHE_LIMIT ints in all. */
+    Rotor newRotor(String name, int ring, boolean tableDriven) {
+        if (!tableDriven) {
+            Rotor result = newRotor(name);
+            result.setRingSetting(ring);
+            return result;
+        }
+        String key = name + " " + ring;
+        Rotor prototype = _tables.get(key);
+        if (prototype == null) {
+            prototype = newRotor(name);
+            prototype.setRingSetting(ring);
+            prototype.setTableDriven(true);
+            long cost = 2L * prototype.size() * prototype.size();
+            if (_tableInts.addAndGet(cost) <= TABLE_CACHE_LIMIT) {
+                Rotor cached = _tables.putIfAbsent(key, prototype);
+                if (cached != null) {
+                    _tableInts.addAndGet(-cost);
+                    prototype = cached;
+                }
+            } else {
+                _tableInts.addAndGet(-cost);
+            }
+        }
+        return prototype.copy();
+    }
+
+    /** Return the cache of setting lines applied to my machines. */
+    SettingCache settings() {
+        return _settings;
+    }
+
+    /** Return a new machine of my specification, with no rotors
+     *  inserted yet. */
+    Machine newMachine() {
+        return new Machine(this);
+    }
+
+    /** Alphabet of my machines and rotors. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _numPawls;
+
+    /** Unused rotor of each available name, in the order given, copied
+     *  for each use and never changed. */
+    private final LinkedHashMap<String, Rotor> _rotors;
+
+    /** Most ints held in the tables of _tables. */
+    private static final long TABLE_CACHE_LIMIT = 1L << 22;
+
+    /** Table-driven unused rotors, keyed by name and ring setting. */
+    private final ConcurrentHashMap<String, Rotor> _tables =
+        new ConcurrentHashMap<String, Rotor>();
+
+    /** Number of ints in the tables of _tables. */
+    private final AtomicLong _tableInts = new AtomicLong();
+
+    /** Most setting lines held in _settings. */
+    static final int SETTING_CACHE_SIZE = 1024;
+
+    /** States produced by recent setting lines. */
+    private final SettingCache _settings =
+        new SettingCache(SETTING_CACHE_SIZE);
+
+}
@@ -0,0 +1,110 @@
+package enigma;
+
+import java.util.Arrays;
+
+/** The parts of an Enigma machine that change between messages: the
+ *  rotors in its slots, their settings and ring settings, and its
+ *  plugboard.  A MachineState never changes once made, so it may be
+ *  kept, shared between threads, and restored into any number of
+ *  Machines with the same MachineSpec.
+ *  @author Smit Malde
+ */
+class MachineState {
+
+    /** The state of a machine whose slots hold the rotors named ROTORS
+     *  (ROTORS[0] being the reflector), with setting SETTINGS[k] and
+     *  ring setting RINGS[k] in slot k, and with plugboard PLUGBOARD. */
+    MachineState(String[] rotors, int[] settings, int[] rings,
+                 Permutation plugboard) {
+        _rotors = rotors.clone();
+        _settings = settings.clone();
+        _rings = rings.clone();
+        _plugboard = plugboard;
+    }
+
+    /** Return the number of rotor slots I describe. */
+    int numRotors() {
+        return _rotors.length;
+    }
+
+    /** Return the name of the rotor in slot K. */
+    String rotor(int k) {
+        return _rotors[k];
+    }
+
+    /** Return the setting of the rotor in slot K. */
+    int setting(int k) {
+        return _settings[k];
+    }
+
+    /** Return the ring setting of the rotor in slot K. */
+    int ringSetting(int k) {
+        return _rings[k];
+    }
+
+    /** Return the plugboard. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    /** Return true iff my slots hold the rotors named ROTORS. */
+    boolean sameRotors(String[] rotors) {
+        return Arrays.equals(_rotors, rotors);
+    }
+
+    /** Return a setting line for Main that puts a machine with alphabet
+     *  ALPHA in this state, giving ring settings only when some are not
+     *  0 and plugboard cycles only for characters not mapped to
+     *  themselves. */
+    String settingLine(Alphabet alpha) {
+        StringBuilder line = new StringBuilder("*");
+        for (String rotor : _rotors) {
+            line.append(' ').append(rotor);
+        }
+        line.append(' ');
+        boolean ringed = false;
+        for (int k = 1; k < _rotors.length; k += 1) {
+            line.append(alpha.toChar(_settings[k]));
+            ringed |= _rings[k] != 0;
+        }
+        if (ringed) {
+            line.append(' ');
+            for (int k = 1; k < _rotors.length; k += 1) {
+                line.append(alpha.toChar(_rings[k]));
+            }
+        }
+        boolean[] done = new boolean[_plugboard.size()];
+        for (int x = 0; x < done.length; x += 1) {
+            if (done[x] || _plugboard.permute(x) == x) {
+                continue;
+            }
+            line.append(" (");
+            for (int y = x; !done[y]; y = _plugboard.permute(y)) {
+                line.append(alpha.toChar(y));
+                done[y] = true;
+            }
+            line.append(')');
+        }
+        return line.toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s %s", Arrays.toString(_rotors),
+                             Arrays.toString(_settings),
+                             Arrays.toString(_rings));
+    }
+
+    /** Names of the rotors in each slot. */
+    private final String[] _rotors;
+
+    /** Setting of the rotor in each slot. */
+    private final int[] _settings;
+
+    /** Ring setting of the rotor in each slot. */
+    private final int[] _rings;
+
+    /** The plugboard. */
+    private final Permutation _plugboard;
+
+}
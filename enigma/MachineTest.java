@@ -1,6 +1,11 @@
 package enigma;
 
+import java.nio.BufferOverflowException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import org.junit.Test;
 import org.junit.Rule;
 import org.junit.rules.Timeout;
@@ -55,11 +60,45 @@ public class MachineTest {
         assertEquals(5, mach.numRotors());
         assertEquals(3, mach.numPawls());
         assertEquals(AZ, mach.alphabet());
-        assertEquals(ROTORS.get("B"), mach.getRotor(0));
-        assertEquals(ROTORS.get("Beta"), mach.getRotor(1));
-        assertEquals(ROTORS.get("III"), mach.getRotor(2));
-        assertEquals(ROTORS.get("IV"), mach.getRotor(3));
-        assertEquals(ROTORS.get("I"), mach.getRotor(4));
+        for (int i = 0; i < ROTORS1.length; i += 1) {
+            assertEquals(ROTORS1[i], mach.getRotor(i).name());
+            assertNotSame(ROTORS.get(ROTORS1[i]), mach.getRotor(i));
+            assertEquals(0, mach.getRotor(i).setting());
+        }
+    }
+
+    @Test
+    public void testSharedSpec() {
+        MachineSpec spec = new MachineSpec(AZ, 5, 3, ROTORS.values());
+        Machine mach = spec.newMachine(), other = spec.newMachine();
+        mach.insertRotors(ROTORS1);
+        other.insertRotors(ROTORS1);
+        mach.setRotors(SETTING1);
+        other.setRotors(SETTING1);
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        other.setPlugboard(mach.plugboard());
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                mach.convert("FROMHISSHOULDERHIAWATHA"));
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                other.convert("FROMHISSHOULDERHIAWATHA"));
+        assertEquals(0, ROTORS.get("I").setting());
+    }
+
+    @Test
+    public void testStateRestore() {
+        Machine mach = mach1();
+        mach.setRingSetting("BCDE");
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        MachineState start = mach.state();
+        String cipher = mach.convert("FROMHISSHOULDERHIAWATHA");
+        MachineState end = mach.state();
+        mach.insertRotors(new String[] { "B", "Beta", "I", "IV", "III" });
+        mach.restore(start);
+        assertEquals(cipher, mach.convert("FROMHISSHOULDERHIAWATHA"));
+        assertEquals(end.toString(), mach.state().toString());
+        Machine other = new Machine(mach.spec());
+        other.restore(start);
+        assertEquals(cipher, other.convert("FROMHISSHOULDERHIAWATHA"));
     }
 
     @Test
@@ -76,4 +115,213 @@ public class MachineTest {
         assertEquals("QVPQSOKOILPUBKJZPISFXDW",
                 mach.convert("FROMHISSHOULDERHIAWATHA"));
     }
+
+    @Test
+    public void testStaticRotorSettings() {
+        Machine mach = mach1();
+        mach.setRotors("QXLE");
+        mach.setRingSetting("BCDE");
+        String cipher = mach.convert("FROMHISSHOULDERHIAWATHA");
+        mach.setTableDriven(false);
+        mach.insertRotors(ROTORS1);
+        mach.setRotors("QXLE");
+        mach.setRingSetting("BCDE");
+        assertEquals(cipher, mach.convert("FROMHISSHOULDERHIAWATHA"));
+        mach.setRotors("QXLE");
+        assertEquals("FROMHISSHOULDERHIAWATHA", mach.convert(cipher));
+    }
+
+    @Test
+    public void testTracer() {
+        final StringBuilder trace = new StringBuilder();
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        mach.setTracer(new Tracer() {
+            public boolean enabled() {
+                return true;
+            }
+            public void begin(CharSequence settings, char input) {
+                trace.append(settings).append(input);
+            }
+            public void hop(char contact) {
+                trace.append(contact);
+            }
+            public void end(char output) {
+                trace.append(output).append('.');
+            }
+            public void flush() {
+            }
+        });
+        assertEquals("QVP", mach.convert("FRO"));
+        assertEquals(3 * (4 + 1 + 1 + 9 + 1 + 1), trace.length());
+        assertTrue(trace.toString().startsWith("AXLFFF"));
+        assertTrue(trace.toString().endsWith("P."));
+    }
+
+    @Test
+    public void testConvertBulk() {
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        char[] msg = "FROM HIS SHOULDER HIAWATHA".toCharArray();
+        assertEquals(23, mach.convert(msg, 0, msg.length, msg, 0));
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW", new String(msg, 0, 23));
+
+        mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        String plain = "FROMHISSHOULDERHIAWATHA";
+        int[] indices = new int[plain.length()];
+        byte[] bytes = new byte[plain.length()];
+        for (int i = 0; i < indices.length; i += 1) {
+            indices[i] = AZ.toInt(plain.charAt(i));
+        }
+        mach.convert(indices, 0, indices.length);
+        mach.setRotors(SETTING1);
+        mach.convert(bytes, 0, 0);
+        for (int i = 0; i < indices.length; i += 1) {
+            assertEquals("QVPQSOKOILPUBKJZPISFXDW".charAt(i),
+                         AZ.toChar(indices[i]));
+            bytes[i] = (byte) indices[i];
+        }
+        mach.convert(bytes, 0, bytes.length);
+        for (int i = 0; i < bytes.length; i += 1) {
+            assertEquals(plain.charAt(i), AZ.toChar(bytes[i]));
+        }
+    }
+
+    /** Return a machine with its own naval rotors B, Beta, VI, VIII,
+     *  and V, set to SETTING. */
+    private Machine navalMachine(String setting) {
+        return navalMachine(setting, "ZM");
+    }
+
+    /** Return a machine as for navalMachine(SETTING), but with VIII's
+     *  notches at NOTCHES. */
+    private Machine navalMachine(String setting, String notches) {
+        HashMap<String, String> nav = TestUtils.NAVALA;
+        HashMap<String, Rotor> rotors = new HashMap<>();
+        rotors.put("B", new Reflector("B", new Permutation(nav.get("B"), AZ)));
+        rotors.put("Beta", new FixedRotor("Beta",
+                new Permutation(nav.get("Beta"), AZ)));
+        rotors.put("VI", new MovingRotor("VI",
+                new Permutation(nav.get("VI"), AZ), "ZM"));
+        rotors.put("VIII", new MovingRotor("VIII",
+                new Permutation(nav.get("VIII"), AZ), notches));
+        rotors.put("V", new MovingRotor("V",
+                new Permutation(nav.get("V"), AZ), "Z"));
+        Machine mach = new Machine(AZ, 5, 3, rotors.values());
+        mach.insertRotors(new String[] { "B", "Beta", "VI", "VIII", "V" });
+        mach.setRotors(setting);
+        return mach;
+    }
+
+    @Test
+    public void testAdvance() {
+        String[] settings = { "AAAA", "AXLE", "QMZY", "BLYZ", "CZMA" };
+        long[] counts = { 0, 1, 2, 3, 25, 26, 27, 651, 677, 17576, 123457 };
+        for (String setting : settings) {
+            for (long n : counts) {
+                Machine jumped = navalMachine(setting);
+                Machine stepped = navalMachine(setting);
+                jumped.advance(n);
+                for (long k = 0; k < n; k += 1) {
+                    stepped.advance(1);
+                }
+                for (int r = 1; r < 5; r += 1) {
+                    assertEquals(setting + " + " + n,
+                                 stepped.getRotor(r).setting(),
+                                 jumped.getRotor(r).setting());
+                }
+                assertEquals(stepped.convert("HIAWATHA"),
+                             jumped.convert("HIAWATHA"));
+            }
+        }
+    }
+
+    @Test
+    public void testConvertBytes() {
+        Random random = new Random(17);
+        byte[] bytes = new byte[3 * 17576 + 5];
+        int[] indices = new int[bytes.length];
+        for (int i = 0; i < bytes.length; i += 1) {
+            indices[i] = random.nextInt(26);
+            bytes[i] = (byte) indices[i];
+        }
+        Machine byBytes = navalMachine("QMZY");
+        Machine byIndices = navalMachine("QMZY");
+        byBytes.convert(bytes, 0, bytes.length);
+        byIndices.convert(indices, 0, indices.length);
+        for (int i = 0; i < bytes.length; i += 1) {
+            assertEquals(indices[i], bytes[i]);
+        }
+        try {
+            byBytes.convert(new byte[] { (byte) 200 }, 0, 1);
+            fail("byte outside the alphabet accepted");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("out of range"));
+        }
+    }
+
+    @Test
+    public void testConvertCharBuffers() {
+        Machine mach = navalMachine("QMZY");
+        Machine ref = navalMachine("QMZY");
+        CharBuffer src = CharBuffer.wrap("HIA WATHA");
+        CharBuffer dst = CharBuffer.allocate(16);
+        dst.limit(7);
+        try {
+            mach.convert(src, dst);
+            fail("overflowed the limit of the destination");
+        } catch (BufferOverflowException excp) {
+            assertEquals(0, src.position());
+            assertEquals(0, dst.position());
+            assertEquals(0, dst.array()[7]);
+        }
+        dst.limit(8);
+        assertEquals(8, mach.convert(src, dst));
+        dst.flip();
+        assertEquals(ref.convert("HIAWATHA"), dst.toString());
+        dst = CharBuffer.allocate(16).put("..").slice();
+        dst.limit(3);
+        try {
+            mach.convert(CharBuffer.wrap("HIAWATHA"), dst);
+            fail("overflowed a slice");
+        } catch (BufferOverflowException excp) {
+            assertEquals(0, dst.position());
+        }
+        assertEquals(ref.convert("AB"), mach.convert("AB"));
+    }
+
+    @Test
+    public void testConvertParallel() {
+        for (String notches : new String[] { "ZM", "MQR" }) {
+            StringBuilder msg = new StringBuilder();
+            Random random = new Random(61);
+            for (int i = 0; i < 5 * Machine.PARALLEL_CHUNK + 17; i += 1) {
+                msg.append(random.nextInt(6) == 0 ? ' '
+                           : TestUtils.UPPER_STRING.charAt(
+                               random.nextInt(26)));
+            }
+            Machine sequential = navalMachine("QMZY", notches);
+            Machine parallel = navalMachine("QMZY", notches);
+            assertEquals(notches, sequential.convert(msg.toString()),
+                         parallel.convertParallel(msg.toString()));
+            for (int r = 1; r < 5; r += 1) {
+                assertEquals(notches, sequential.getRotor(r).setting(),
+                             parallel.getRotor(r).setting());
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testConvertParallelAdjacentNotches() {
+        char[] msg = new char[128 * Machine.PARALLEL_CHUNK];
+        Arrays.fill(msg, 'A');
+        Machine sequential = navalMachine("AAAA", "MQR");
+        Machine parallel = navalMachine("AAAA", "MQR");
+        char[] expected = new char[msg.length], result = new char[msg.length];
+        sequential.convert(msg, 0, msg.length, expected, 0);
+        parallel.convertParallel(msg, 0, msg.length, result, 0,
+                                 ForkJoinPool.commonPool());
+        assertEquals(new String(expected), new String(result));
+    }
 }
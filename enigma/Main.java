@@ -1,11 +1,32 @@
 package enigma;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import ucb.util.CommandArgs;
 import static enigma.EnigmaException.*;
 
@@ -26,14 +47,64 @@ public final class Main {
     public static void main(String... args) {
         try {
             CommandArgs options =
-                new CommandArgs("--verbose --=(.*){1,3}", args);
-            if (!options.ok()) {
-                throw error("Usage: java enigma.Main [--verbose] "
-                            + "[INPUT [OUTPUT]]");
+                new CommandArgs("--verbose --compact --parallel=(\\d+) "
+                                + "--compile --bytes=(.+) --stats=(\\d+) "
+                                + "--keystream=(\\d+) --engine=(\\w+) "
+                                + "--=(.*){1,3}",
+                                args);
+            if (!options.ok()
+                || options.contains("--compile")
+                   && options.get("--").size() != 2) {
+                throw error("Usage: java enigma.Main [--verbose] [--compact] "
+                            + "[--parallel=N] [--stats=SECONDS] "
+                            + "[--keystream=N] [--engine=NAME] "
+                            + "CONFIG [INPUT [OUTPUT]]%n"
+                            + "       java enigma.Main --bytes=KEYFILE "
+                            + "[--engine=NAME] CONFIG [INPUT [OUTPUT]]%n"
+                            + "       java enigma.Main --compile CONFIG "
+                            + "IMAGE");
+            }
+            if (options.contains("--compile")) {
+                ConfigImage.write(readConfig(options.get("--").get(0)),
+                                  options.get("--").get(1));
+                return;
             }
 
             _verbose = options.contains("--verbose");
-            new Main(options.get("--")).process();
+            _compact = options.contains("--compact");
+            if (options.contains("--engine")) {
+                _engine = options.getFirst("--engine");
+            } else if (_compact) {
+                _engine = ConversionEngine.REFERENCE.name();
+            } else {
+                _engine = System.getProperty(ConversionEngine.PROPERTY,
+                                             "auto");
+            }
+            if (options.contains("--parallel")) {
+                _threads = Integer.parseInt(options.getFirst("--parallel"));
+            }
+            if (options.contains("--keystream")) {
+                _keystreamLength =
+                    Integer.parseInt(options.getFirst("--keystream"));
+            }
+            if (options.contains("--stats")) {
+                int period = Integer.parseInt(options.getFirst("--stats"));
+                Metrics.get().register();
+                if (period > 0) {
+                    Metrics.get().report(System.err, period);
+                }
+            }
+            String key = null;
+            if (options.contains("--bytes")) {
+                key = readKey(options.getFirst("--bytes"));
+            }
+            try {
+                new Main(options.get("--"), key).process();
+            } finally {
+                if (options.contains("--stats")) {
+                    System.err.println(Metrics.get().getSummary());
+                }
+            }
             return;
         } catch (EnigmaException excp) {
             System.err.printf("Error: %s%n", excp.getMessage());
@@ -44,23 +115,68 @@ public final class Main {
     /** Open the necessary files for non-option arguments ARGS (see comment
       *  on main). */
     Main(List<String> args) {
-        _config = getInput(args.get(0));
+        this(args, null);
+    }
+
+    /** Open the necessary files for non-option arguments ARGS, as for
+     *  Main(ARGS), except that when KEY is not null, the input and
+     *  output are bytes rather than text, converted by a machine set up
+     *  from the setting line KEY. */
+    Main(List<String> args, String key) {
+        if (ConfigImage.isImage(args.get(0))) {
+            _spec = ConfigImage.read(args.get(0));
+        } else {
+            _config = getInput(args.get(0));
+        }
+
+        _key = key;
+        _inputLength = args.size() > 1 ? new File(args.get(1)).length()
+            : System.console() != null ? 0 : -1;
+        if (key != null) {
+            _byteInput = args.size() > 1 ? getChannel(args.get(1), false)
+                : new FileInputStream(FileDescriptor.in).getChannel();
+            _byteOutput = args.size() > 2 ? getChannel(args.get(2), true)
+                : new FileOutputStream(FileDescriptor.out).getChannel();
+            return;
+        }
 
         if (args.size() > 1) {
-            _input = getInput(args.get(1));
+            _input = new LineReader(getReader(args.get(1)));
         } else {
-            _input = new Scanner(System.in);
+            _input = new LineReader(new InputStreamReader(System.in,
+                                                          decoder()));
         }
 
         if (args.size() > 2) {
             _output = getOutput(args.get(2));
         } else {
-            _output = System.out;
+            _output = new GroupWriter(
+                Channels.newChannel(System.out),
+                CHARSET.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE),
+                OUTPUT_BUFFER);
+        }
+    }
+
+    /** Return the first line of the file named NAME, which holds the
+     *  setting line for --bytes.  Keeping it in a file keeps it off
+     *  the command line, where it would be visible to other users and
+     *  limited to the characters of the platform's argument encoding. */
+    private static String readKey(String name) {
+        try (LineReader key = new LineReader(
+                 Channels.newReader(getChannel(name, false), decoder(), -1))) {
+            if (!key.next()) {
+                throw error("%s is empty", name);
+            }
+            return key.line();
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
         }
     }
 
     /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
+    private static Scanner getInput(String name) {
         try {
             return new Scanner(new File(name));
         } catch (IOException excp) {
@@ -68,93 +184,355 @@ public final class Main {
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
+    /** Return a Reader reading the file named NAME through a file
+     *  channel. */
+    private Reader getReader(String name) {
         try {
-            return new PrintStream(new File(name));
-        } catch (IOException excp) {
+            return Channels.newReader(FileChannel.open(Paths.get(name)),
+                                      decoder(), -1);
+        } catch (IOException | InvalidPathException excp) {
             throw error("could not open %s", name);
         }
     }
 
+    /** Return a channel on the file named NAME, for writing (replacing
+     *  its contents) iff OUTPUT and otherwise for reading. */
+    private static FileChannel getChannel(String name, boolean output) {
+        try {
+            if (output) {
+                return FileChannel.open(Paths.get(name),
+                                        StandardOpenOption.CREATE,
+                                        StandardOpenOption.WRITE,
+                                        StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            return FileChannel.open(Paths.get(name));
+        } catch (IOException | InvalidPathException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a writer writing to the file named NAME through a file
+     *  channel, in blocks of OUTPUT_BUFFER bytes. */
+    private GroupWriter getOutput(String name) {
+        try {
+            FileChannel channel =
+                FileChannel.open(Paths.get(name), StandardOpenOption.CREATE,
+                                 StandardOpenOption.WRITE,
+                                 StandardOpenOption.TRUNCATE_EXISTING);
+            return new GroupWriter(channel, CHARSET.newEncoder(),
+                                   OUTPUT_BUFFER);
+        } catch (IOException | InvalidPathException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a decoder for input files that, like Scanner, replaces
+     *  malformed input rather than failing. */
+    private static CharsetDecoder decoder() {
+        return CHARSET.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
-    private void process() {
-        Machine enigma = readConfig();
-        String settingLine = _input.nextLine();
-        do {
-            if (settingLine.charAt(0) != '*') {
-                throw new EnigmaException("bad input, missing asterisk(*)");
-            }
-            setUp(enigma, settingLine);
-            while (!_input.hasNext("[\\*]") && _input.hasNextLine()) {
-                printMessageLine(enigma.convert(_input.nextLine()));
-            }
-            if (_input.hasNextLine()) {
-                settingLine = _input.nextLine();
-                while ((settingLine.equals("") || settingLine.charAt(0) != '*')
-                        && _input.hasNextLine()) {
-                    settingLine = _input.nextLine();
-                    _output.println();
+    void process() {
+        if (_spec == null) {
+            _spec = readConfig(_config);
+        }
+        Machine enigma = _spec.newMachine();
+        enigma.setEngine(ConversionEngine.choose(_engine, _spec,
+                                                 _inputLength));
+        if (!_verbose && !_compact) {
+            _keystreams = new KeystreamCache(_spec, _keystreamLength,
+                                             KEYSTREAM_BUDGET);
+        }
+        if (_verbose) {
+            enigma.setTracer(new AsyncTracer(System.err));
+        }
+        if (_key != null) {
+            try {
+                processBytes(enigma);
+            } finally {
+                enigma.tracer().flush();
+            }
+            return;
+        }
+        try {
+            if (_threads > 1 && !_verbose) {
+                processParallel(enigma, _threads);
+            } else {
+                process(enigma);
+            }
+        } finally {
+            enigma.tracer().flush();
+            long start = System.nanoTime();
+            try {
+                _output.flush();
+                Metrics.get().flush().record(start);
+            } catch (IOException excp) {
+                throw error("could not write output: %s", excp.getMessage());
+            }
+        }
+    }
+
+    /** Apply ENIGMA to the messages in _input, sending the results to
+     *  _output.  Each setting line is applied in turn, except that a
+     *  setting line followed by nothing but blank lines is ignored, along
+     *  with those lines.  Other blank lines print as empty lines. */
+    private void process(Machine enigma) {
+        _keystream = keyedSetUp(enigma, firstSettingLine());
+        while (_input.next()) {
+            if (_input.blank()) {
+                printLine(_converted, 0);
+                continue;
+            } else if (!_input.settingLine()) {
+                printMessageLine(enigma);
+                continue;
+            }
+            String settingLine = _input.line();
+            int blankLines = blankLinesAfterSetting();
+            if (blankLines < 0) {
+                return;
+            }
+            _keystream = keyedSetUp(enigma, settingLine);
+            for (; blankLines > 0; blankLines -= 1) {
+                printLine(_converted, 0);
+            }
+        }
+    }
+
+    /** Apply ENIGMA, set up from _key, to the bytes of _byteInput,
+     *  writing the results to _byteOutput.  Each byte is taken as an
+     *  index into ENIGMA's alphabet, which must have BYTE_VALUES
+     *  characters, and there are no lines, blanks, or groups. */
+    private void processBytes(Machine enigma) {
+        if (enigma.alphabet().size() != BYTE_VALUES) {
+            throw error("byte mode needs an alphabet of %d characters, "
+                        + "not %d", BYTE_VALUES, enigma.alphabet().size());
+        }
+        if (!_key.trim().startsWith("*")) {
+            throw new EnigmaException("bad settings, missing asterisk(*)");
+        }
+        setUp(enigma, _key);
+        ByteBuffer buffer = ByteBuffer.allocate(OUTPUT_BUFFER);
+        try (ReadableByteChannel in = _byteInput;
+             WritableByteChannel out = _byteOutput) {
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                long start = System.nanoTime();
+                enigma.convert(buffer.array(), 0, buffer.limit());
+                Metrics.get().conversion().record(start);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
                 }
+                buffer.clear();
             }
-        } while (_input.hasNext());
+        } catch (IOException excp) {
+            throw error("could not convert bytes: %s", excp.getMessage());
+        }
     }
 
+    /** As for process(ENIGMA), but converting the messages under each
+     *  setting line as a separate task, with THREADS threads each using
+     *  its own copy of ENIGMA.  Results are printed in input order. */
+    private void processParallel(Machine enigma, int threads) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ThreadLocal<Machine> machines = ThreadLocal.withInitial(enigma::copy);
+        ThreadLocal<GroupWriter> writers =
+            ThreadLocal.withInitial(() -> new GroupWriter(
+                _output.newEncoder()));
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+        try {
+            String settingLine = firstSettingLine();
+            ArrayList<String> lines = new ArrayList<String>();
+            while (_input.next()) {
+                if (!_input.settingLine()) {
+                    lines.add(_input.blank() ? "" : _input.line());
+                    continue;
+                }
+                String nextSetting = _input.line();
+                int blankLines = blankLinesAfterSetting();
+                if (blankLines < 0) {
+                    break;
+                }
+                final String setting = settingLine;
+                final ArrayList<String> block = lines;
+                pending.add(pool.submit(
+                    () -> convertBlock(machines.get(), writers.get(),
+                                       setting, block)));
+                if (pending.size() >= BLOCKS_PER_THREAD * threads) {
+                    printBlock(pending.remove());
+                }
+                settingLine = nextSetting;
+                lines = new ArrayList<String>();
+                for (; blankLines > 0; blankLines -= 1) {
+                    lines.add("");
+                }
+            }
+            final String setting = settingLine;
+            final ArrayList<String> block = lines;
+            pending.add(pool.submit(
+                () -> convertBlock(machines.get(), writers.get(),
+                                       setting, block)));
+            while (!pending.isEmpty()) {
+                printBlock(pending.remove());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
+    /** Return the output for the message LINES that follow SETTINGLINE,
+     *  converted by M and encoded by OUT, which holds its output in
+     *  memory. */
+    private byte[] convertBlock(Machine M, GroupWriter out,
+                                String settingLine, List<String> lines)
+        throws IOException {
+        char[] converted = new char[0];
+        KeystreamCache.Keystream keystream = keyedSetUp(M, settingLine);
+        for (String line : lines) {
+            char[] msg = line.toCharArray();
+            if (converted.length < msg.length) {
+                converted = new char[msg.length];
+            }
+            int len = 0;
+            if (!line.isEmpty()) {
+                long start = System.nanoTime();
+                len = keystream == null ? -1
+                    : keystream.convert(msg, 0, msg.length, converted, 0);
+                if (len < 0) {
+                    len = M.convert(msg, 0, msg.length, converted, 0);
+                }
+                Metrics.get().conversion().record(start);
+                Metrics.get().message();
+            }
+            out.writeLine(converted, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    /** Print the output of the block conversion BLOCK, once it is done,
+     *  or report its error. */
+    private void printBlock(Future<byte[]> block) {
+        try {
+            byte[] bytes = block.get();
+            _output.write(bytes, 0, bytes.length);
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("conversion failed: %s", excp.getCause());
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+    }
+
+    /** Read the first line of _input, which must be a setting line, and
+     *  return it. */
+    private String firstSettingLine() {
+        if (!_input.next()) {
+            throw new EnigmaException("bad input, no settings");
+        }
+        if (_input.length() == 0
+                || _input.buffer()[_input.start()] != '*') {
+            throw new EnigmaException("bad input, missing asterisk(*)");
+        }
+        return _input.line();
+    }
+
+    /** Having just read a setting line from _input, skip the blank lines
+     *  after it and return how many there were, leaving the next line to
+     *  be read again.  Returns -1 if the input ends first, in which case
+     *  the setting line does not take effect. */
+    private int blankLinesAfterSetting() {
+        int blankLines = 0;
+        boolean more = _input.next();
+        while (more && _input.blank()) {
+            blankLines += 1;
+            more = _input.next();
+        }
+        if (!more) {
+            return -1;
+        }
+        _input.pushBack();
+        return blankLines;
+    }
+
+    /** Return the specification of an Enigma machine configured from the
+     *  contents of the configuration file named NAME, which may be text
+     *  or an image compiled by --compile. */
+    static MachineSpec readConfig(String name) {
+        if (ConfigImage.isImage(name)) {
+            return ConfigImage.read(name);
+        }
+        Scanner config = getInput(name);
         try {
-            if (!_config.hasNext("[^\\s()]*")) {
+            return readConfig(config);
+        } finally {
+            config.close();
+        }
+    }
+
+    /** Return the specification of an Enigma machine configured from the
+     *  contents of configuration file CONFIG. */
+    private static MachineSpec readConfig(Scanner config) {
+        long start = System.nanoTime();
+        try {
+            if (!config.hasNext("[^\\s()]*")) {
                 throw new EnigmaException("wrong alphabet");
             }
-            _alphabet = new Alphabet(_config.next());
-            if (!_config.hasNextInt()) {
+            Alphabet alphabet = new Alphabet(config.next());
+            if (!config.hasNextInt()) {
                 throw new EnigmaException("wrong number of rotor slots");
             }
-            int rotorSlots = _config.nextInt();
-            if (!_config.hasNextInt()) {
+            int rotorSlots = config.nextInt();
+            if (!config.hasNextInt()) {
                 throw new EnigmaException("wrong number of pawls");
             }
-            int numPawls = _config.nextInt();
+            int numPawls = config.nextInt();
             if (numPawls >= rotorSlots) {
                 throw new EnigmaException(
                         "wrong number of pawls, more pawls than rotors");
             }
             ArrayList<Rotor> allrotors = new ArrayList<Rotor>();
-            while (_config.hasNext()) {
-                allrotors.add(readRotor());
+            while (config.hasNext()) {
+                allrotors.add(readRotor(config, alphabet));
             }
-            return new Machine(_alphabet, rotorSlots, numPawls, allrotors);
+            return new MachineSpec(alphabet, rotorSlots, numPawls,
+                                   allrotors);
         } catch (NoSuchElementException excp) {
             throw new EnigmaException("configuration file truncated");
+        } finally {
+            Metrics.get().configParse().record(start);
         }
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
+    /** Return a rotor with alphabet ALPHABET, reading its description
+     *  from CONFIG. */
+    private static Rotor readRotor(Scanner config, Alphabet alphabet) {
         try {
-            if (!_config.hasNext("[^\\s()]+")) {
+            if (!config.hasNext("[^\\s()]+")) {
                 throw new EnigmaException("wrong rotor name");
             }
-            String rotorName = _config.next();
-            if (!_config.hasNext("((M[" + _alphabet + "]*)|N|R)")) {
+            String rotorName = config.next();
+            if (!config.hasNext("((M[" + alphabet + "]*)|N|R)")) {
                 throw new EnigmaException("wrong rotor notches");
             }
-            String notches = _config.next();
+            String notches = config.next();
             StringBuilder permutation = new StringBuilder();
-            while (_config.hasNext("(\\([^\\s()]*\\))+")) {
-                permutation.append(_config.next());
+            while (config.hasNext("(\\([^\\s()]*\\))+")) {
+                permutation.append(config.next());
             }
-            Rotor r;
-            if (!checkPermutaion(permutation.toString(), _alphabet)) {
-                throw new EnigmaException("bad permutation,"
-                        + " illegal characters in permutation");
+            Permutation perms;
+            try {
+                perms = new Permutation(permutation.toString(), alphabet);
+            } catch (EnigmaException excp) {
+                throw error("rotor %s: %s", rotorName, excp.getMessage());
             }
-            Permutation perms = new Permutation(
-                    permutation.toString(), _alphabet);
             switch (notches.charAt(0)) {
             case 'M' : return new MovingRotor(rotorName,
                         perms, notches.substring(1));
@@ -168,94 +546,202 @@ public final class Main {
         }
     }
 
-    private boolean checkRepeat(String permutation) {
-        ArrayList<Character> permutedLetters = new ArrayList<Character>();
-        for (int i = 0; i < permutation.length(); i++) {
-            if (permutedLetters.contains(permutation.charAt(i))
-                    && permutation.charAt(i) != '('
-                    && permutation.charAt(i) != ')') {
-                return false;
-            }
-            permutedLetters.add(permutation.charAt(i));
+    /** Set M according to the setting line SETTINGS, as for setUp, and
+     *  return the keystream through which its following messages may be
+     *  converted, or null if M is to convert them itself. */
+    private KeystreamCache.Keystream keyedSetUp(Machine M,
+                                                String settings) {
+        setUp(M, settings);
+        if (_keystreams == null) {
+            return null;
         }
-        return true;
+        return _keystreams.get(SettingCache.normalize(settings), M);
     }
 
-    private boolean checkPermutaion(String permutation, Alphabet alphabet) {
-        if (!checkRepeat(permutation)) {
-            return false;
-        }
-        for (int i = 0; i < permutation.length(); i++) {
-            if (!alphabet.contains(permutation.charAt(i))
-                    && permutation.charAt(i) != '('
-                    && permutation.charAt(i) != ')') {
-                return false;
-            }
+    /** Set M according to the specification given on SETTINGS,
+     *  which must have the format specified in the assignment.  A line
+     *  already applied to a machine of M's specification is not parsed
+     *  again; M is put in the state it produced. */
+    static void setUp(Machine M, String settings) {
+        long start = System.nanoTime();
+        SettingCache cache = M.spec().settings();
+        String line = SettingCache.normalize(settings);
+        MachineState state = cache.get(line);
+        if (state != null) {
+            M.restore(state);
+        } else {
+            parseSetting(M, line);
+            cache.put(line, M.state());
         }
-        return true;
+        Metrics.get().setUp().record(start);
+        Metrics.get().block();
     }
 
-    /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
-        Scanner setting = new Scanner(settings);
+    /** Set M according to the setting line SETTINGS. */
+    private static void parseSetting(Machine M, String settings) {
+        ArrayList<String> setting = tokens(settings);
+        if (setting.size() < M.numRotors() + 2) {
+            throw new EnigmaException("bad setting, too few fields");
+        }
         String[] rotorNames = new String[M.numRotors()];
-        setting.next();
-        for (int i = 0; i < M.numRotors(); i++) {
-            rotorNames[i] = setting.next();
+        int k = 1;
+        for (int i = 0; i < M.numRotors(); i++, k++) {
+            rotorNames[i] = setting.get(k);
         }
         M.insertRotors(rotorNames);
-        M.setRotors(setting.next());
-        if (setting.hasNext() && !setting.hasNext("(\\([^\\s\\(\\)]*\\))+")) {
-            String ringSetting = setting.next();
-            M.setRingSetting(ringSetting);
+        M.setRotors(setting.get(k));
+        k += 1;
+        if (k < setting.size() && !cycles(setting.get(k))) {
+            M.setRingSetting(setting.get(k));
+            k += 1;
         }
         StringBuilder permutation = new StringBuilder();
-        while (setting.hasNext("(\\([^\\s\\(\\)]*\\))+")) {
-            permutation.append(setting.next());
-        }
-        if (!checkPermutaion(permutation.toString(), _alphabet)) {
-            throw new EnigmaException(
-                    "bad permutation, illegal characters in permutation");
+        for (; k < setting.size() && cycles(setting.get(k)); k++) {
+            permutation.append(setting.get(k));
         }
-        Permutation perms = new Permutation(permutation.toString(), _alphabet);
+        Permutation perms =
+            new Permutation(permutation.toString(), M.alphabet());
         M.setPlugboard(perms);
     }
 
-
-
-    /** Return true iff verbose option specified. */
-    static boolean verbose() {
-        return _verbose;
+    /** Return the whitespace-separated tokens of LINE. */
+    private static ArrayList<String> tokens(String line) {
+        ArrayList<String> result = new ArrayList<String>();
+        int i = 0;
+        while (i < line.length()) {
+            if (Character.isWhitespace(line.charAt(i))) {
+                i += 1;
+                continue;
+            }
+            int start = i;
+            while (i < line.length()
+                   && !Character.isWhitespace(line.charAt(i))) {
+                i += 1;
+            }
+            result.add(line.substring(start, i));
+        }
+        return result;
     }
 
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        StringBuilder message = new StringBuilder();
-        for (int i = 0; i < msg.length(); i++) {
-            if ((i + 1) % 5 == 0) {
-                message.append(msg.charAt(i));
-                message.append(" ");
-                continue;
+    /** Return true iff TOKEN is one or more parenthesized cycles, with no
+     *  parentheses or whitespace inside them. */
+    private static boolean cycles(String token) {
+        boolean open = false;
+        for (int i = 0; i < token.length(); i++) {
+            char ch = token.charAt(i);
+            if (ch == '(') {
+                if (open) {
+                    return false;
+                }
+                open = true;
+            } else if (ch == ')') {
+                if (!open) {
+                    return false;
+                }
+                open = false;
+            } else if (!open || Character.isWhitespace(ch)) {
+                return false;
             }
-            message.append(msg.charAt(i));
         }
-        _output.println(message.toString());
+        return token.length() > 0 && !open;
+    }
+
+    /** Convert the current line of _input with M, and print the result
+     *  in groups of five. */
+    private void printMessageLine(Machine M) {
+        int len = _input.length();
+        if (_converted.length < len) {
+            _converted = new char[Math.max(len, 2 * _converted.length)];
+        }
+        long start = System.nanoTime();
+        int converted = _keystream == null ? -1
+            : _keystream.convert(_input.buffer(), _input.start(), len,
+                                 _converted, 0);
+        if (converted < 0) {
+            converted = M.convertParallel(_input.buffer(), _input.start(),
+                                          len, _converted, 0,
+                                          ForkJoinPool.commonPool());
+        }
+        Metrics.get().conversion().record(start);
+        Metrics.get().message();
+        printLine(_converted, converted);
     }
 
-    /** Alphabet used in this machine. */
-    private Alphabet _alphabet;
+    /** Print the first LEN characters of MSG on _output in groups of
+     *  five (except that the last group may have fewer letters). */
+    private void printLine(char[] msg, int len) {
+        try {
+            _output.writeLine(msg, 0, len);
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+    }
 
     /** Source of input messages. */
-    private Scanner _input;
+    private LineReader _input;
+
+    /** Setting line for byte mode (--bytes), or null for text. */
+    private String _key;
+
+    /** Source and destination of bytes in byte mode. */
+    private ReadableByteChannel _byteInput;
+    private WritableByteChannel _byteOutput;
 
-    /** Source of machine configuration. */
+    /** Most characters to be converted under one key: the length of
+     *  the input file, 0 when typed at a terminal, and otherwise -1
+     *  (unknown).  In text mode this is only a bound, since any line
+     *  may be a setting line. */
+    private long _inputLength = -1;
+
+    /** Source of machine configuration, unless it is an image. */
     private Scanner _config;
 
+    /** Machine specification, once read from _config or an image. */
+    private MachineSpec _spec;
+
     /** File for encoded/decoded messages. */
-    private PrintStream _output;
+    private GroupWriter _output;
+
+    /** Keystreams of the keys used so far, or null if not used. */
+    private KeystreamCache _keystreams;
+
+    /** Keystream of the current setting line, or null. */
+    private KeystreamCache.Keystream _keystream;
+
+    /** Reused buffer for converted message lines. */
+    private char[] _converted = new char[OUTPUT_BUFFER];
+
+    /** Character set of input and output files. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /** Size of the blocks in which output is written. */
+    private static final int OUTPUT_BUFFER = 1 << 16;
+
+    /** Number of characters in the alphabet of a machine converting
+     *  bytes: one for each byte value. */
+    private static final int BYTE_VALUES = 256;
 
     /** True if --verbose specified. */
     private static boolean _verbose;
+
+    /** Number of threads converting blocks, from --parallel. */
+    private static int _threads = 1;
+
+    /** Number of blocks per thread that may be converted ahead of the
+     *  output. */
+    private static final int BLOCKS_PER_THREAD = 4;
+
+    /** True if --compact specified: rotors compute each conversion
+     *  instead of building lookup tables. */
+    private static boolean _compact;
+
+    /** Name of the conversion engine, from --engine, --compact, or the
+     *  enigma.engine property; "auto" to choose one by input length. */
+    private static String _engine = "auto";
+
+    /** Number of positions in each keystream, from --keystream. */
+    private static int _keystreamLength = 1 << 10;
+
+    /** Most bytes held by the rows of keystreams. */
+    private static final long KEYSTREAM_BUDGET = 1L << 24;
 }
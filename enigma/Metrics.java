@@ -0,0 +1,330 @@
+package enigma;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import static enigma.EnigmaException.*;
+
+/** Counts and timings of the work done in this process: characters,
+ *  message lines, and setting lines converted, and the time taken to
+ *  read configurations, apply setting lines, convert messages, and flush
+ *  output.  Everything is recorded in striped accumulators (LongAdder
+ *  and LongAccumulator), so threads recording at once do not contend,
+ *  and Machine records each bulk conversion rather than each character.
+ *  There is one set of metrics per process, returned by get().
+ *  @author Smit Malde
+ */
+public final class Metrics implements MetricsMXBean {
+
+    /** Return the metrics of this process. */
+    static Metrics get() {
+        return INSTANCE;
+    }
+
+    /** The metrics of this process. */
+    private Metrics() {
+    }
+
+    /** Record the conversion of N characters. */
+    void converted(long n) {
+        _characters.add(n);
+    }
+
+    /** Record the conversion of a message line. */
+    void message() {
+        _messages.increment();
+    }
+
+    /** Record the application of a setting line. */
+    void block() {
+        _blocks.increment();
+    }
+
+    /** Record a setting line found in a SettingCache. */
+    void settingHit() {
+        _settingHits.increment();
+    }
+
+    /** Record a setting line not found in a SettingCache. */
+    void settingMiss() {
+        _settingMisses.increment();
+    }
+
+    /** Return the timer for reading configurations. */
+    Timer configParse() {
+        return _configParse;
+    }
+
+    /** Return the timer for applying setting lines. */
+    Timer setUp() {
+        return _setUp;
+    }
+
+    /** Return the timer for converting message lines. */
+    Timer conversion() {
+        return _conversion;
+    }
+
+    /** Return the timer for flushing output. */
+    Timer flush() {
+        return _flush;
+    }
+
+    @Override
+    public long getCharacters() {
+        return _characters.sum();
+    }
+
+    @Override
+    public long getMessages() {
+        return _messages.sum();
+    }
+
+    @Override
+    public long getBlocks() {
+        return _blocks.sum();
+    }
+
+    @Override
+    public long getSettingHits() {
+        return _settingHits.sum();
+    }
+
+    @Override
+    public long getSettingMisses() {
+        return _settingMisses.sum();
+    }
+
+    @Override
+    public Stats getConfigParse() {
+        return _configParse.stats();
+    }
+
+    @Override
+    public Stats getSetUp() {
+        return _setUp.stats();
+    }
+
+    @Override
+    public Stats getConversion() {
+        return _conversion.stats();
+    }
+
+    @Override
+    public Stats getFlush() {
+        return _flush.stats();
+    }
+
+    @Override
+    public String getSummary() {
+        return String.format("%d chars, %d messages, %d blocks "
+                             + "(%d cached, %d parsed); "
+                             + "config %s; setUp %s; convert %s; flush %s",
+                             getCharacters(), getMessages(), getBlocks(),
+                             getSettingHits(), getSettingMisses(),
+                             getConfigParse(), getSetUp(), getConversion(),
+                             getFlush());
+    }
+
+    @Override
+    public void reset() {
+        _characters.reset();
+        _messages.reset();
+        _blocks.reset();
+        _settingHits.reset();
+        _settingMisses.reset();
+        _configParse.reset();
+        _setUp.reset();
+        _conversion.reset();
+        _flush.reset();
+    }
+
+    /** Register me with the platform MBean server under NAME, unless I
+     *  already am. */
+    void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                .registerMBean(this, new ObjectName(NAME));
+        } catch (InstanceAlreadyExistsException excp) {
+            return;
+        } catch (JMException excp) {
+            throw error("could not register metrics: %s",
+                        excp.getMessage());
+        }
+    }
+
+    /** Print my summary on OUT every PERIOD seconds, from a daemon
+     *  thread, until the process ends. */
+    void report(PrintStream out, int period) {
+        ScheduledExecutorService reporter =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "enigma-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+        reporter.scheduleAtFixedRate(() -> out.println(getSummary()),
+                                     period, period, TimeUnit.SECONDS);
+    }
+
+    /** Accumulates the durations of one kind of operation.  Durations
+     *  are counted in buckets by their bit length, so percentiles are
+     *  accurate to within a factor of two. */
+    static final class Timer {
+
+        /** A timer that has recorded nothing. */
+        Timer() {
+            for (int b = 0; b <= BUCKETS; b += 1) {
+                _buckets[b] = new LongAdder();
+            }
+        }
+
+        /** Record an operation that started at START, a value of
+         *  System.nanoTime(), and has just finished. */
+        void record(long start) {
+            long nanos = Math.max(0, System.nanoTime() - start);
+            _total.add(nanos);
+            _max.accumulate(nanos);
+            _buckets[BUCKETS - Long.numberOfLeadingZeros(nanos)].increment();
+        }
+
+        /** Return a snapshot of my timings. */
+        Stats stats() {
+            long[] buckets = new long[BUCKETS + 1];
+            long count = 0;
+            for (int b = 0; b <= BUCKETS; b += 1) {
+                buckets[b] = _buckets[b].sum();
+                count += buckets[b];
+            }
+            return new Stats(count, _total.sum(), _max.get(),
+                             percentile(buckets, count, 0.5),
+                             percentile(buckets, count, 0.99));
+        }
+
+        /** Forget all recorded operations. */
+        void reset() {
+            _total.reset();
+            _max.reset();
+            for (LongAdder bucket : _buckets) {
+                bucket.reset();
+            }
+        }
+
+        /** Return an upper bound on the fraction Q percentile of the
+         *  COUNT durations counted in BUCKETS. */
+        private static long percentile(long[] buckets, long count,
+                                       double q) {
+            long rank = (long) Math.ceil(q * count), seen = 0;
+            for (int b = 0; b <= BUCKETS; b += 1) {
+                seen += buckets[b];
+                if (seen >= rank && seen > 0) {
+                    return b == BUCKETS ? Long.MAX_VALUE : (1L << b) - 1;
+                }
+            }
+            return 0;
+        }
+
+        /** Number of bits in a duration. */
+        private static final int BUCKETS = 64;
+
+        /** Sum of the durations recorded. */
+        private final LongAdder _total = new LongAdder();
+
+        /** Longest duration. */
+        private final LongAccumulator _max =
+            new LongAccumulator(Math::max, 0);
+
+        /** Number of durations of each bit length. */
+        private final LongAdder[] _buckets = new LongAdder[BUCKETS + 1];
+    }
+
+    /** A snapshot of the timings of one kind of operation. */
+    public static final class Stats {
+
+        /** Timings of COUNT operations taking TOTALNANOS in all, the
+         *  longest MAXNANOS, with median and 99th percentile at most
+         *  MEDIANNANOS and P99NANOS. */
+        Stats(long count, long totalNanos, long maxNanos, long medianNanos,
+              long p99Nanos) {
+            _count = count;
+            _totalNanos = totalNanos;
+            _maxNanos = maxNanos;
+            _medianNanos = medianNanos;
+            _p99Nanos = p99Nanos;
+        }
+
+        /** Return the number of operations. */
+        public long getCount() {
+            return _count;
+        }
+
+        /** Return their total duration in nanoseconds. */
+        public long getTotalNanos() {
+            return _totalNanos;
+        }
+
+        /** Return the longest duration in nanoseconds. */
+        public long getMaxNanos() {
+            return _maxNanos;
+        }
+
+        /** Return an upper bound on the median duration. */
+        public long getMedianNanos() {
+            return _medianNanos;
+        }
+
+        /** Return an upper bound on the 99th percentile duration. */
+        public long getP99Nanos() {
+            return _p99Nanos;
+        }
+
+        @Override
+        public String toString() {
+            if (_count == 0) {
+                return "n=0";
+            }
+            return String.format("n=%d total=%.3fms avg=%.1fus "
+                                 + "p50<=%.1fus p99<=%.1fus max=%.1fus",
+                                 _count, _totalNanos / 1e6,
+                                 _totalNanos / 1e3 / _count,
+                                 _medianNanos / 1e3, _p99Nanos / 1e3,
+                                 _maxNanos / 1e3);
+        }
+
+        /** The values returned by my getters. */
+        private final long _count, _totalNanos, _maxNanos, _medianNanos,
+            _p99Nanos;
+    }
+
+    /** Name under which I am registered with the platform MBean
+     *  server. */
+    static final String NAME = "enigma:type=Metrics";
+
+    /** The metrics of this process. */
+    private static final Metrics INSTANCE = new Metrics();
+
+    /** Characters converted. */
+    private final LongAdder _characters = new LongAdder();
+
+    /** Message lines converted. */
+    private final LongAdder _messages = new LongAdder();
+
+    /** Setting lines applied. */
+    private final LongAdder _blocks = new LongAdder();
+
+    /** Setting lines found and not found in a SettingCache. */
+    private final LongAdder _settingHits = new LongAdder(),
+        _settingMisses = new LongAdder();
+
+    /** Timers of each phase. */
+    private final Timer _configParse = new Timer(), _setUp = new Timer(),
+        _conversion = new Timer(), _flush = new Timer();
+
+}
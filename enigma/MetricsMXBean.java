@@ -0,0 +1,46 @@
+package enigma;
+
+/** The management interface of Metrics, through which its counts and
+ *  timings can be read over JMX (for instance, with jconsole) under the
+ *  name Metrics.NAME.
+ *  @author Smit Malde
+ */
+public interface MetricsMXBean {
+
+    /** Return the number of characters converted. */
+    long getCharacters();
+
+    /** Return the number of message lines converted. */
+    long getMessages();
+
+    /** Return the number of setting lines applied. */
+    long getBlocks();
+
+    /** Return the number of setting lines applied from a cache of
+     *  earlier ones. */
+    long getSettingHits();
+
+    /** Return the number of setting lines parsed because they were not
+     *  in a cache. */
+    long getSettingMisses();
+
+    /** Return the timings of reading configurations. */
+    Metrics.Stats getConfigParse();
+
+    /** Return the timings of applying setting lines. */
+    Metrics.Stats getSetUp();
+
+    /** Return the timings of converting message lines (or, in byte
+     *  mode, buffers). */
+    Metrics.Stats getConversion();
+
+    /** Return the timings of flushing output. */
+    Metrics.Stats getFlush();
+
+    /** Return a one-line summary of all of the above. */
+    String getSummary();
+
+    /** Set all counts and timings back to zero. */
+    void reset();
+
+}
@@ -0,0 +1,76 @@
+package enigma;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Metrics class.
+ *  @author Smit Malde
+ */
+public class MetricsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testTimer() {
+        Metrics.Timer timer = new Metrics.Timer();
+        assertEquals(0, timer.stats().getCount());
+        long now = System.nanoTime();
+        for (int i = 0; i < 99; i += 1) {
+            timer.record(now + 1000000000L);
+        }
+        timer.record(now - 1000000L);
+        Metrics.Stats stats = timer.stats();
+        assertEquals(100, stats.getCount());
+        assertEquals(0, stats.getMedianNanos());
+        assertEquals(0, stats.getP99Nanos());
+        assertTrue(stats.getMaxNanos() >= 1000000L);
+        assertTrue(stats.getMaxNanos() <= stats.getTotalNanos());
+        timer.reset();
+        assertEquals(0, timer.stats().getCount());
+    }
+
+    @Test
+    public void testCounts() {
+        Alphabet az = new Alphabet();
+        ArrayList<Rotor> rotors = new ArrayList<Rotor>();
+        rotors.add(new Reflector("B",
+                       new Permutation(TestUtils.NAVALA.get("B"), az)));
+        rotors.add(new MovingRotor("I",
+                       new Permutation(TestUtils.NAVALA.get("I"), az),
+                       "Q"));
+        Machine mach = new Machine(az, 2, 1, rotors);
+        mach.insertRotors(new String[] { "B", "I" });
+        long before = Metrics.get().getCharacters();
+        mach.convert("HELLO WORLD");
+        assertEquals(before + 10, Metrics.get().getCharacters());
+        mach.convert(new byte[7], 0, 7);
+        assertEquals(before + 17, Metrics.get().getCharacters());
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        Metrics.get().register();
+        Metrics.get().register();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Metrics.NAME);
+        assertEquals(Metrics.get().getBlocks(),
+                     server.getAttribute(name, "Blocks"));
+        CompositeData setUp =
+            (CompositeData) server.getAttribute(name, "SetUp");
+        assertTrue(setUp.containsKey("p99Nanos"));
+        assertTrue(((String) server.getAttribute(name, "Summary"))
+                   .contains("chars"));
+    }
+
+}
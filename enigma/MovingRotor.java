@@ -36,6 +36,12 @@ class MovingRotor extends Rotor {
         set((setting() + 1) % alphabet().size());
     }
 
+    /** Override for copy method. */
+    @Override
+    Rotor copy() {
+        return copyStateTo(new MovingRotor(name(), permutation(), notch));
+    }
+
     /** Override for notches method. */
     @Override
     String notches() {
@@ -71,6 +71,29 @@ public class MovingRotorTest {
         checkRotor("Rotor I set", UPPER_STRING, NAVALZ_MAP.get("I"));
     }
 
+    @Test
+    public void checkTablesMatchArithmetic() {
+        setRotor("V", NAVALA, "Z");
+        Rotor tabled = new MovingRotor("V",
+                new Permutation(NAVALA.get("V"), UPPER), "Z");
+        tabled.setTableDriven(true);
+        for (int ring = 0; ring < 26; ring += 7) {
+            rotor.setRingSetting(ring);
+            tabled.setRingSetting(ring);
+            for (int posn = 0; posn < 26; posn += 1) {
+                for (int p = 0; p < 26; p += 1) {
+                    assertEquals(rotor.convertForward(p),
+                                 tabled.convertForward(p));
+                    assertEquals(rotor.convertBackward(p),
+                                 tabled.convertBackward(p));
+                }
+                rotor.advance();
+                tabled.advance();
+                assertEquals(rotor.setting(), tabled.setting());
+            }
+        }
+    }
+
     @Test
     public void checkConvertForward() {
         setRotor("I", NAVALA, "");
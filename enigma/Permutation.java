@@ -1,6 +1,6 @@
 package enigma;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 import static enigma.EnigmaException.*;
 
@@ -13,43 +13,114 @@ class Permutation {
      *  form "(cccc) (cc) ..." where the c's are characters in ALPHABET, which
      *  is interpreted as a permutation in cycle notation.  Characters in the
      *  alphabet that are not included in any cycle map to themselves.
-     *  Whitespace is ignored. */
+     *  Whitespace between cycles is ignored.  Throws an EnigmaException
+     *  giving the index in CYCLES of the first error, if any. */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
-        _permuted = new ArrayList<Character>();
-        for (int i = 0; i < _alphabet.size(); i++) {
-            _permuted.add(_alphabet.toChar(i));
+        _forward = compile(cycles, alphabet);
+        _inverse = new int[_forward.length];
+        for (int i = 0; i < _forward.length; i++) {
+            _inverse[_forward[i]] = i;
         }
-        addCycle(cycles);
-    }
-
-    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
-    private void addCycle(String cycle) {
-        for (int i = 0; i < _permuted.size(); i++) {
-            if (cycle.contains(String.valueOf(_permuted.get(i)))) {
-                for (int c = 0; c < cycle.length(); c++) {
-                    if ((cycle.charAt(c) == _permuted.get(i))
-                            && (cycle.charAt(c + 1) != ')')) {
-                        _permuted.set(i, cycle.charAt(c + 1));
-                        break;
-                    }
-                    if ((cycle.charAt(c) == _permuted.get(i))
-                            && (cycle.charAt(c + 1) == ')')) {
-                        for (int back = c; back >= 0; back--) {
-                            if (cycle.charAt(back) == '(') {
-                                _permuted.set(i, cycle.charAt(back + 1));
-                                break;
-                            }
-                        }
-                    }
+    }
+
+    /** A permutation of ALPHABET taking each index K to MAPPING[K]. */
+    Permutation(int[] mapping, Alphabet alphabet) {
+        _alphabet = alphabet;
+        if (mapping.length != alphabet.size()) {
+            throw error("mapping has %d entries for %d characters",
+                        mapping.length, alphabet.size());
+        }
+        _forward = mapping.clone();
+        _inverse = new int[_forward.length];
+        Arrays.fill(_inverse, -1);
+        for (int i = 0; i < _forward.length; i++) {
+            if (_forward[i] < 0 || _forward[i] >= _forward.length
+                || _inverse[_forward[i]] >= 0) {
+                throw error("mapping is not a permutation");
+            }
+            _inverse[_forward[i]] = i;
+        }
+    }
+
+    /** Return the mapping of each index of ALPHABET by the permutation
+     *  whose cycles are CYCLES, checking as it goes that each cycle is
+     *  closed, holds only characters of ALPHABET, and shares none with
+     *  any other.  Takes time proportional to the lengths of CYCLES and
+     *  ALPHABET. */
+    private static int[] compile(String cycles, Alphabet alphabet) {
+        int[] result = new int[alphabet.size()];
+        Arrays.fill(result, UNSEEN);
+        int first = UNSEEN, last = UNSEEN, open = -1;
+        for (int i = 0; i < cycles.length(); i++) {
+            char ch = cycles.charAt(i);
+            if (ch == '(') {
+                if (open >= 0) {
+                    throw badCycles(cycles, i, "nested '('");
                 }
+                open = i;
+                first = last = UNSEEN;
+            } else if (ch == ')') {
+                if (open < 0) {
+                    throw badCycles(cycles, i, "unmatched ')'");
+                }
+                if (last != UNSEEN) {
+                    result[last] = first;
+                }
+                open = -1;
+            } else if (Character.isWhitespace(ch)) {
+                if (open >= 0) {
+                    throw badCycles(cycles, i, "blank inside a cycle");
+                }
+            } else {
+                int c = alphabet.toInt(ch);
+                if (open < 0) {
+                    throw badCycles(cycles, i, ch + " outside a cycle");
+                } else if (c < 0) {
+                    throw badCycles(cycles, i, ch + " not in alphabet");
+                } else if (result[c] != UNSEEN) {
+                    throw badCycles(cycles, i, ch + " repeated");
+                }
+                result[c] = OPEN;
+                if (last == UNSEEN) {
+                    first = c;
+                } else {
+                    result[last] = c;
+                }
+                last = c;
             }
         }
+        if (open >= 0) {
+            throw badCycles(cycles, open, "unclosed '('");
+        }
+        for (int c = 0; c < result.length; c++) {
+            if (result[c] == UNSEEN) {
+                result[c] = c;
+            }
+        }
+        return result;
+    }
+
+    /** A permutation of ALPHABET taking each index K to FORWARD[K] and
+     *  back by INVERSE, which are used as they are, not copied. */
+    private Permutation(Alphabet alphabet, int[] forward, int[] inverse) {
+        _alphabet = alphabet;
+        _forward = forward;
+        _inverse = inverse;
+    }
+
+    /** Return an exception reporting PROBLEM at index I of CYCLES. */
+    private static EnigmaException badCycles(String cycles, int i,
+                                             String problem) {
+        return error("bad permutation \"%s\": %s at index %d", cycles,
+                     problem, i);
     }
 
     /** Return the value of P modulo the size of this permutation. */
     final int wrap(int p) {
+        if (p >= 0 && p < _forward.length) {
+            return p;
+        }
         int r = p % size();
         if (r < 0) {
             r += size();
@@ -65,28 +136,24 @@ class Permutation {
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        char perms = _permuted.get(wrap(p));
-        return _alphabet.toInt(perms);
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        char perms = _alphabet.toChar(wrap(c));
-        return _permuted.indexOf(perms);
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        int index = _alphabet.toInt(p);
-        return _permuted.get(index);
+        return _alphabet.toChar(_forward[_alphabet.toInt(p)]);
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     char invert(char c) {
-        int index = _permuted.indexOf(c);
-        return _alphabet.toChar(index);
+        return _alphabet.toChar(_inverse[_alphabet.toInt(c)]);
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -97,17 +164,160 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        for (int i = 0; i < _alphabet.size(); i++) {
-            if (_permuted.get(i) == _alphabet.toChar(i)) {
-                return false;
+        return fixedPoints() == 0;
+    }
+
+    /** Return a new array holding the index each index maps to. */
+    int[] toArray() {
+        return _forward.clone();
+    }
+
+    /** Return the permutation that applies me and then NEXT, which has
+     *  my alphabet. */
+    Permutation compose(Permutation next) {
+        int[] forward = new int[_forward.length];
+        int[] inverse = new int[_forward.length];
+        compose(_forward, next._forward, forward);
+        compose(next._inverse, _inverse, inverse);
+        return new Permutation(_alphabet, forward, inverse);
+    }
+
+    /** Return my inverse.  Takes constant time. */
+    Permutation inverse() {
+        return new Permutation(_alphabet, _inverse, _forward);
+    }
+
+    /** Return the permutation that applies me K times (my inverse -K
+     *  times, if K is negative).  Takes time proportional to my size,
+     *  whatever K is. */
+    Permutation power(long k) {
+        int n = _forward.length;
+        int[] forward = new int[n], inverse = new int[n];
+        int[] cycle = new int[n];
+        boolean[] seen = new boolean[n];
+        for (int start = 0; start < n; start++) {
+            if (seen[start]) {
+                continue;
+            }
+            int len = 0;
+            for (int p = start; !seen[p]; p = _forward[p]) {
+                seen[p] = true;
+                cycle[len] = p;
+                len += 1;
             }
+            int step = (int) Math.floorMod(k, (long) len);
+            for (int j = 0; j < len; j++) {
+                int q = cycle[(j + step) % len];
+                forward[cycle[j]] = q;
+                inverse[q] = cycle[j];
+            }
+        }
+        return new Permutation(_alphabet, forward, inverse);
+    }
+
+    /** Return the permutation taking P to permute(P + SHIFT) - SHIFT,
+     *  modulo my size: my conversion as a rotor whose contacts are
+     *  turned by SHIFT. */
+    Permutation conjugate(int shift) {
+        int[] forward = new int[_forward.length];
+        int[] inverse = new int[_forward.length];
+        conjugate(shift, forward);
+        inverse().conjugate(shift, inverse);
+        return new Permutation(_alphabet, forward, inverse);
+    }
+
+    /** Fill RESULT, which has my size, with conjugate(SHIFT) applied to
+     *  each index. */
+    void conjugate(int shift, int[] result) {
+        int n = _forward.length;
+        shift = wrap(shift);
+        for (int p = 0; p < n; p++) {
+            int c = p + shift < n ? p + shift : p + shift - n;
+            int q = _forward[c] - shift;
+            result[p] = q < 0 ? q + n : q;
         }
-        return true;
     }
 
+    /** Fill RESULT, which has the size of FIRST and SECOND, with the
+     *  conversion of each index by FIRST and then SECOND.  RESULT may
+     *  be FIRST. */
+    static void compose(int[] first, int[] second, int[] result) {
+        for (int p = 0; p < first.length; p++) {
+            result[p] = second[first[p]];
+        }
+    }
+
+    /** Return the lengths of my cycles, including those of length 1,
+     *  longest first. */
+    int[] cycleType() {
+        int n = _forward.length;
+        int[] lengths = new int[n];
+        boolean[] seen = new boolean[n];
+        int cycles = 0;
+        for (int start = 0; start < n; start++) {
+            int len = 0;
+            for (int p = start; !seen[p]; p = _forward[p]) {
+                seen[p] = true;
+                len += 1;
+            }
+            if (len > 0) {
+                lengths[cycles] = -len;
+                cycles += 1;
+            }
+        }
+        int[] result = Arrays.copyOf(lengths, cycles);
+        Arrays.sort(result);
+        for (int i = 0; i < cycles; i++) {
+            result[i] = -result[i];
+        }
+        return result;
+    }
+
+    /** Return the least K > 0 for which power(K) is the identity. */
+    long order() {
+        long result = 1;
+        int previous = 0;
+        for (int len : cycleType()) {
+            if (len == previous) {
+                continue;
+            }
+            previous = len;
+            long gcd = result, b = len;
+            while (b != 0) {
+                long t = gcd % b;
+                gcd = b;
+                b = t;
+            }
+            try {
+                result = Math.multiplyExact(result / gcd, len);
+            } catch (ArithmeticException excp) {
+                throw error("order of permutation is too large");
+            }
+        }
+        return result;
+    }
+
+    /** Return the number of indices I map to themselves. */
+    int fixedPoints() {
+        int result = 0;
+        for (int i = 0; i < _forward.length; i++) {
+            if (_forward[i] == i) {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Entries of compile's result for a character not yet in a cycle,
+     *  and for the last one read of the cycle being read. */
+    private static final int UNSEEN = -1, OPEN = -2;
+
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
-    /** A list containing permuted letters. */
-    private ArrayList<Character> _permuted;
+    /** The index each index maps to under this permutation. */
+    private int[] _forward;
+
+    /** The index each index maps to under the inverse permutation. */
+    private int[] _inverse;
 }
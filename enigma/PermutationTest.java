@@ -1,5 +1,6 @@
 package enigma;
 
+import java.util.Arrays;
 import org.junit.Test;
 import org.junit.Rule;
 import org.junit.rules.Timeout;
@@ -70,6 +71,83 @@ public class PermutationTest {
         assertEquals('U', perm.invert('A'));
     }
     @Test
+    public void testInvertUndoesPermute() {
+        perm = new Permutation(TestUtils.NAVALA.get("V"), UPPER);
+        for (int i = 0; i < perm.size(); i += 1) {
+            assertEquals(i, perm.invert(perm.permute(i)));
+            assertEquals(i, perm.permute(perm.invert(i)));
+        }
+        assertEquals(perm.permute(1), perm.permute(1 + perm.size()));
+        assertEquals(perm.invert(25), perm.invert(-1));
+    }
+    @Test
+    public void testSparseAlphabet() {
+        Alphabet alph = new Alphabet("A\u4e2d\u00e9z\uac00");
+        assertEquals(5, alph.size());
+        assertEquals(1, alph.toInt('\u4e2d'));
+        assertEquals(-1, alph.toInt('B'));
+        assertFalse(alph.contains('\u4e2e'));
+        perm = new Permutation("(A\u4e2d\uac00) (z)", alph);
+        assertEquals('\uac00', perm.permute('\u4e2d'));
+        assertEquals('\u4e2d', perm.invert('\uac00'));
+        assertEquals('\u00e9', perm.permute('\u00e9'));
+    }
+    @Test
+    public void testBadCycles() {
+        Alphabet alph = new Alphabet("ABCDE");
+        String[][] cases = {
+            { "(AB) (CA)", "A repeated at index 7" },
+            { "(AB) (CF)", "F not in alphabet at index 7" },
+            { "(AB) C", "C outside a cycle at index 5" },
+            { "(AB) (CD", "unclosed '(' at index 5" },
+            { "(AB)) (CD)", "unmatched ')' at index 4" },
+            { "(A(B))", "nested '(' at index 2" },
+            { "(A B)", "blank inside a cycle at index 2" },
+        };
+        for (String[] c : cases) {
+            try {
+                new Permutation(c[0], alph);
+                fail(c[0] + " accepted");
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage(),
+                           excp.getMessage().endsWith(c[1]));
+            }
+        }
+        perm = new Permutation(" (AB)() (C)  (ED) ", alph);
+        checkPerm("spaced", "ABCDE", "BACED");
+    }
+    @Test
+    public void testAlgebra() {
+        Alphabet alph = new Alphabet("ABCDEF");
+        perm = new Permutation("(ABC) (DE)", alph);
+        Permutation other = new Permutation("(AF) (BD)", alph);
+        Permutation both = perm.compose(other);
+        for (int p = 0; p < 6; p += 1) {
+            assertEquals(other.permute(perm.permute(p)), both.permute(p));
+            assertEquals(p, both.invert(both.permute(p)));
+            assertEquals(perm.invert(p), perm.inverse().permute(p));
+            assertEquals(perm.permute(perm.permute(p)),
+                         perm.power(2).permute(p));
+            assertEquals(perm.invert(p), perm.power(-1).permute(p));
+            assertEquals(perm.permute(p), perm.power(7).permute(p));
+            assertEquals(p, perm.power(0).permute(p));
+            assertEquals(perm.wrap(perm.permute(p + 2) - 2),
+                         perm.conjugate(2).permute(p));
+            assertEquals(p,
+                         perm.conjugate(-5).invert(
+                             perm.conjugate(-5).permute(p)));
+        }
+        assertEquals(6, perm.order());
+        assertEquals(1, perm.fixedPoints());
+        assertEquals("[3, 2, 1]", Arrays.toString(perm.cycleType()));
+        assertEquals(1, perm.power(perm.order()).cycleType()[0]);
+        assertEquals(6, perm.power(perm.order()).fixedPoints());
+        perm = new Permutation(TestUtils.NAVALA.get("I"), UPPER);
+        assertEquals("[10, 4, 4, 3, 2, 2, 1]",
+                     Arrays.toString(perm.cycleType()));
+        assertEquals(60, perm.order());
+    }
+    @Test
     public void testDerangement() {
         Alphabet alph = new Alphabet("ABCDE");
         perm = new Permutation("(AB) (CED)", alph);
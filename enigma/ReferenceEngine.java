@@ -0,0 +1,27 @@
+package enigma;
+
+/** The conversion engine that computes each character's conversion
+ *  from the rotors' permutations as it goes, building no tables.  It
+ *  costs the most arithmetic per character and nothing beforehand.
+ *  @author Smit Malde
+ */
+class ReferenceEngine implements ConversionEngine {
+
+    @Override
+    public String name() {
+        return "reference";
+    }
+
+    @Override
+    public boolean tableDriven() {
+        return false;
+    }
+
+    @Override
+    public void convert(Machine m, int[] msg, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            msg[i] = m.convert(msg[i]);
+        }
+    }
+
+}
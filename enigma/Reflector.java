@@ -19,6 +19,12 @@ class Reflector extends FixedRotor {
         return convertForward(e);
     }
 
+    /** Override for copy method. */
+    @Override
+    Rotor copy() {
+        return copyStateTo(new Reflector(name(), permutation()));
+    }
+
     /** Override for reflecting method. */
     @Override
     boolean reflecting() {
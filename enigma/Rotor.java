@@ -14,7 +14,7 @@ class  Rotor {
         _name = name;
         _permutation = perm;
         _setting = 0;
-        _notches = new ArrayList<Character>();
+        _notches = new boolean[perm.size()];
         _ringSetting = 0;
     }
 
@@ -53,30 +53,99 @@ class  Rotor {
         return _setting;
     }
 
+    /** Return my ring setting. */
+    int ringSetting() {
+        return _ringSetting;
+    }
+
     /** Set r to ringSetting.
      * @param r */
     void setRingSetting(int r) {
         _ringSetting = r;
+        if (_tableDriven) {
+            buildTables();
+        }
+    }
+
+    /** Return true iff I convert through precomputed tables. */
+    boolean tableDriven() {
+        return _tableDriven;
+    }
+
+    /** Convert through tables precomputed for my ring setting iff ON.
+     *  The tables take 2 * size() * size() ints; without them, each
+     *  conversion is computed from my permutation instead. */
+    void setTableDriven(boolean on) {
+        _tableDriven = on;
+        if (on) {
+            buildTables();
+        } else {
+            _forwardTable = _backwardTable = null;
+            _forwardRow = _backwardRow = null;
+            _tableRing = -1;
+        }
+    }
+
+    /** Return my forward conversion of each input at each setting,
+     *  indexed by [setting][input], or null if I am not table-driven.
+     *  The table is shared, and must not be modified. */
+    int[][] forwardTable() {
+        return _forwardTable;
+    }
+
+    /** Return my backward conversion of each input at each setting, as
+     *  for forwardTable(). */
+    int[][] backwardTable() {
+        return _backwardTable;
+    }
+
+    /** Fill in my forward and backward tables for the current ring
+     *  setting, indexed by [setting][input], unless they already are. */
+    private void buildTables() {
+        if (_tableRing != _ringSetting || _forwardTable == null) {
+            int n = size();
+            _forwardTable = new int[n][n];
+            _backwardTable = new int[n][n];
+            Permutation inverse = _permutation.inverse();
+            for (int posn = 0; posn < n; posn++) {
+                int shift = posn - _ringSetting;
+                _permutation.conjugate(shift, _forwardTable[posn]);
+                inverse.conjugate(shift, _backwardTable[posn]);
+            }
+            _tableRing = _ringSetting;
+        }
+        _forwardRow = _forwardTable[_setting];
+        _backwardRow = _backwardTable[_setting];
     }
 
     /** Set setting() to POSN.  */
     void set(int posn) {
+        if (posn < 0 || posn >= size()) {
+            throw error("rotor %s has no setting %d", _name, posn);
+        }
         _setting = posn;
+        if (_forwardTable != null) {
+            _forwardRow = _forwardTable[posn];
+            _backwardRow = _backwardTable[posn];
+        }
     }
 
     /** Set setting() to character CPOSN. */
     void set(char cposn) {
+        if (!alphabet().contains(cposn)) {
+            throw error("'%c' is not a setting of rotor %s", cposn, _name);
+        }
         set(alphabet().toInt(cposn));
     }
 
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
+        if (_forwardRow != null) {
+            return _forwardRow[p];
+        }
         int result = _permutation.permute((p + setting()
                 - _ringSetting + alphabet().size()) % alphabet().size());
-        if (Main.verbose()) {
-            System.err.printf("%c -> ", alphabet().toChar(result));
-        }
         return (result - setting() + _ringSetting
                 + alphabet().size()) % alphabet().size();
     }
@@ -84,15 +153,31 @@ class  Rotor {
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
+        if (_backwardRow != null) {
+            return _backwardRow[e];
+        }
         int result = _permutation.invert((e + setting()
                 - _ringSetting + alphabet().size()) % alphabet().size());
-        if (Main.verbose()) {
-            System.err.printf("%c -> ", alphabet().toChar(result));
-        }
         return (result - setting() + _ringSetting
                 + alphabet().size()) % alphabet().size();
     }
 
+    /** Fill RESULT, which has my size, with convertForward(P) for each
+     *  P, or with convertBackward(P) if BACKWARD, at my current
+     *  setting. */
+    void conversions(boolean backward, int[] result) {
+        Permutation perm =
+            backward ? _permutation.inverse() : _permutation;
+        perm.conjugate(_setting - _ringSetting, result);
+    }
+
+    /** Return the contact of my permutation, at my current setting, at
+     *  which a conversion producing C (as returned by convertForward or
+     *  convertBackward) left me. */
+    int contact(int c) {
+        return _permutation.wrap(c + _setting - _ringSetting);
+    }
+
     /** Returns the positions of the notches, as a string giving the letters
      *  on the ring at which they occur. */
     String notches() {
@@ -103,13 +188,46 @@ class  Rotor {
     /** Returns true iff I am positioned to allow the rotor to my left
      *  to advance. */
     boolean atNotch() {
-        return _notches.contains(alphabet().toChar(_setting));
+        return _notches[_setting];
+    }
+
+    /** Return true iff I would be positioned to allow the rotor to my
+     *  left to advance at setting POSN. */
+    boolean notchAt(int posn) {
+        return _notches[posn];
     }
 
     /** Sets notches to an ArrayList.
      * @param notchlst */
     public void setNotches(ArrayList<Character> notchlst) {
-        _notches = notchlst;
+        _notches = new boolean[size()];
+        for (char notch : notchlst) {
+            if (alphabet().contains(notch)) {
+                _notches[alphabet().toInt(notch)] = true;
+            }
+        }
+    }
+
+    /** Return a new rotor like me, at my current setting and ring
+     *  setting, that shares none of my changeable state. */
+    Rotor copy() {
+        return copyStateTo(new Rotor(_name, _permutation));
+    }
+
+    /** Give OTHER, a new rotor with my name and permutation, my notches,
+     *  settings, and tables, and return it.  The tables are never
+     *  modified once built, so they are shared rather than copied. */
+    Rotor copyStateTo(Rotor other) {
+        other._notches = _notches;
+        other._setting = _setting;
+        other._ringSetting = _ringSetting;
+        other._tableDriven = _tableDriven;
+        other._tableRing = _tableRing;
+        other._forwardTable = _forwardTable;
+        other._backwardTable = _backwardTable;
+        other._forwardRow = _forwardRow;
+        other._backwardRow = _backwardRow;
+        return other;
     }
 
     /** Advance me one position, if possible. By default, does nothing. */
@@ -130,10 +248,28 @@ class  Rotor {
     /** Setting the rotor is at. */
     private int _setting;
 
-    /** A list with the notches. */
-    private ArrayList<Character> _notches;
+    /** Whether each setting is at a notch. */
+    private boolean[] _notches;
 
-    /** */
+    /** My ring setting, as an index into my alphabet. */
     private int _ringSetting;
 
+    /** True iff I convert through precomputed tables. */
+    private boolean _tableDriven;
+
+    /** The ring setting my tables were built for, or -1. */
+    private int _tableRing = -1;
+
+    /** Forward conversion of each input at each setting, indexed by
+     *  [setting][input], or null. */
+    private int[][] _forwardTable;
+
+    /** Backward conversion of each input at each setting, indexed by
+     *  [setting][input], or null. */
+    private int[][] _backwardTable;
+
+    /** The rows of _forwardTable and _backwardTable for my current
+     *  setting, or null when I am not table-driven. */
+    private int[] _forwardRow, _backwardRow;
+
 }
@@ -0,0 +1,339 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** A long-running Enigma service, which saves clients the cost of
+ *  starting a JVM and reading a configuration for each job.  It listens
+ *  on a loopback port or a Unix-domain socket, and serves each
+ *  connection on its own thread with its own machine.  Configurations
+ *  are read once and shared by all connections, and read again only
+ *  when their files change.
+ *
+ *  Requests and replies are frames: a four-byte big-endian length and
+ *  then that many bytes of UTF-8 text.  The requests are
+ *     CONFIG FILE   use the configuration (text or image) in FILE;
+ *     SET LINE      set up the machine from LINE, a setting line such
+ *                   as Main accepts ("* B Beta III IV I AXLE ...");
+ *     MSG LINE      convert LINE, continuing from the previous message;
+ *     QUIT          close the connection.
+ *  Each is answered with "OK" or "ERR MESSAGE", except that MSG is
+ *  answered with "OK " followed by the converted line in groups of
+ *  five, exactly as Main prints it (without the line terminator).
+ *  The server's Metrics are registered for JMX as Metrics.NAME.
+ *  @author Smit Malde
+ */
+class Server {
+
+    /** Serve requests on the loopback port given by --port (default
+     *  PORT), or on the Unix-domain socket named by --socket, until
+     *  killed.  ARGS holds the options. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--port=(\\d+) --socket=(.+)", args);
+            if (!options.ok()
+                || options.contains("--port")
+                   && options.contains("--socket")) {
+                throw error("Usage: java enigma.Server [--port=N | "
+                            + "--socket=PATH]");
+            }
+            SocketAddress address;
+            if (options.contains("--socket")) {
+                address = UnixDomainSocketAddress.of(
+                    options.getFirst("--socket"));
+            } else {
+                int port = PORT;
+                if (options.contains("--port")) {
+                    port = Integer.parseInt(options.getFirst("--port"));
+                }
+                address = new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), port);
+            }
+            Server server = new Server(address);
+            Metrics.get().register();
+            System.out.printf("listening on %s%n", server.address());
+            server.serve();
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A server listening on ADDRESS, a loopback socket address or a
+     *  Unix-domain socket address.  A Unix-domain socket file left
+     *  behind by a server that is no longer running is replaced. */
+    Server(SocketAddress address) {
+        try {
+            if (address instanceof UnixDomainSocketAddress) {
+                _socketFile = ((UnixDomainSocketAddress) address).getPath();
+                removeStale((UnixDomainSocketAddress) address);
+                _listener =
+                    ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            } else {
+                _socketFile = null;
+                _listener = ServerSocketChannel.open();
+            }
+            _listener.bind(address);
+        } catch (IOException excp) {
+            throw error("could not listen on %s: %s", address,
+                        excp.getMessage());
+        }
+    }
+
+    /** Delete the socket file of ADDRESS if it exists but no server
+     *  accepts connections on it.  Regular files and directories are
+     *  left alone, so that bind reports them. */
+    private static void removeStale(UnixDomainSocketAddress address)
+        throws IOException {
+        Path path = address.getPath();
+        if (!Files.exists(path) || Files.isRegularFile(path)
+            || Files.isDirectory(path)) {
+            return;
+        }
+        try {
+            SocketChannel.open(address).close();
+        } catch (IOException excp) {
+            Files.deleteIfExists(path);
+            return;
+        }
+        throw error("%s is in use by a running server", path);
+    }
+
+    /** Return the address I listen on. */
+    SocketAddress address() {
+        try {
+            return _listener.getLocalAddress();
+        } catch (IOException excp) {
+            throw error("server is closed");
+        }
+    }
+
+    /** Accept connections and serve each on its own thread, until
+     *  close() is called. */
+    void serve() {
+        try {
+            while (true) {
+                SocketChannel client = _listener.accept();
+                _threads.execute(() -> handle(client));
+            }
+        } catch (ClosedChannelException excp) {
+            return;
+        } catch (IOException excp) {
+            throw error("could not accept connection: %s",
+                        excp.getMessage());
+        } finally {
+            _threads.shutdown();
+        }
+    }
+
+    /** Stop accepting connections, removing my Unix-domain socket file,
+     *  if any.  Connections already accepted are served until their
+     *  clients close them. */
+    void close() {
+        try {
+            _listener.close();
+            if (_socketFile != null) {
+                Files.deleteIfExists(_socketFile);
+            }
+        } catch (IOException excp) {
+            throw error("could not close server: %s", excp.getMessage());
+        }
+    }
+
+    /** Answer the requests on CLIENT until it closes or quits. */
+    private void handle(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(channel)));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)));
+            Session session = new Session();
+            while (true) {
+                String request;
+                try {
+                    request = readFrame(in);
+                } catch (EOFException excp) {
+                    return;
+                }
+                if (request.equals("QUIT")) {
+                    writeFrame(out, "OK");
+                    return;
+                }
+                String reply;
+                try {
+                    reply = session.answer(request);
+                } catch (EnigmaException excp) {
+                    reply = "ERR " + excp.getMessage();
+                }
+                writeFrame(out, reply);
+            }
+        } catch (IOException | EnigmaException excp) {
+            return;
+        }
+    }
+
+    /** The state of one connection. */
+    private class Session {
+
+        /** Return the reply to REQUEST. */
+        String answer(String request) throws IOException {
+            int space = request.indexOf(' ');
+            String command = space < 0 ? request
+                : request.substring(0, space);
+            String arg = space < 0 ? "" : request.substring(space + 1);
+            switch (command) {
+            case "CONFIG":
+                _spec = spec(arg);
+                _machine = null;
+                return "OK";
+            case "SET":
+                if (_spec == null) {
+                    throw error("no configuration");
+                }
+                _machine = null;
+                Machine machine = _spec.newMachine();
+                Main.setUp(machine, arg);
+                _machine = machine;
+                return "OK";
+            case "MSG":
+                if (_machine == null) {
+                    throw error("no settings");
+                }
+                char[] msg = arg.toCharArray();
+                long start = System.nanoTime();
+                int len = _machine.convert(msg, 0, msg.length, msg, 0);
+                Metrics.get().conversion().record(start);
+                Metrics.get().message();
+                _reply.write(OK, 0, OK.length);
+                _reply.writeGroups(msg, 0, len);
+                return new String(_reply.toByteArray(),
+                                  StandardCharsets.UTF_8);
+            default:
+                throw error("unknown request %s", command);
+            }
+        }
+
+        /** Configuration in use, or null. */
+        private MachineSpec _spec;
+
+        /** Machine set up by the last SET, or null if it failed. */
+        private Machine _machine;
+
+        /** Holds the reply to a MSG while it is grouped and encoded. */
+        private final GroupWriter _reply = new GroupWriter(
+            StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE));
+    }
+
+    /** Return the specification in the configuration file named NAME,
+     *  reading it only if it is not cached or has changed since.  It is
+     *  read outside the cache's locks, so that a slow read holds up no
+     *  other lookups; of two reads of the same version, the first
+     *  stored is kept. */
+    private MachineSpec spec(String name) {
+        Path path;
+        long modified;
+        try {
+            path = Paths.get(name).toRealPath();
+            modified = Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException | InvalidPathException excp) {
+            throw error("could not open %s", name);
+        }
+        Cached cached = _configs.get(path);
+        if (cached == null || cached._modified != modified) {
+            Cached read =
+                new Cached(Main.readConfig(path.toString()), modified);
+            cached = _configs.merge(path, read, (old, now) ->
+                old._modified >= now._modified ? old : now);
+        }
+        return cached._spec;
+    }
+
+    /** A configuration read from a file. */
+    private static class Cached {
+
+        /** SPEC, read from a file last modified at time MODIFIED. */
+        Cached(MachineSpec spec, long modified) {
+            _spec = spec;
+            _modified = modified;
+        }
+
+        /** The configuration. */
+        private final MachineSpec _spec;
+
+        /** Modification time of the file when it was read. */
+        private final long _modified;
+    }
+
+    /** Return the text of the next frame from IN. */
+    static String readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME) {
+            throw new IOException("bad frame length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Write TEXT to OUT as a frame. */
+    static void writeFrame(DataOutputStream out, String text)
+        throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.flush();
+    }
+
+    /** Default port. */
+    static final int PORT = 6161;
+
+    /** Largest frame accepted. */
+    static final int MAX_FRAME = 1 << 24;
+
+    /** Start of the reply to a MSG. */
+    private static final char[] OK = "OK ".toCharArray();
+
+    /** Socket file I listen on, or null if I listen on a port. */
+    private final Path _socketFile;
+
+    /** Channel on which connections arrive. */
+    private final ServerSocketChannel _listener;
+
+    /** Threads serving connections, one per connection. */
+    private final ExecutorService _threads = Executors.newCachedThreadPool();
+
+    /** Configurations read so far, by the real paths of their files. */
+    private final ConcurrentHashMap<Path, Cached> _configs =
+        new ConcurrentHashMap<Path, Cached>();
+
+}
@@ -0,0 +1,159 @@
+package enigma;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Server class.
+ *  @author Smit Malde
+ */
+public class ServerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTS ***** */
+
+    private static final Alphabet AZ = new Alphabet(TestUtils.UPPER_STRING);
+
+    /** A specification with the naval reflector B, fixed rotor Beta, and
+     *  moving rotors I, III, and IV. */
+    private static MachineSpec spec() {
+        return TestUtils.navalSpec(AZ, 5, 3, new String[] { "B" },
+                                   new String[] { "Beta" },
+                                   new String[] { "I", "III", "IV" },
+                                   new String[] { "Q", "V", "J" });
+    }
+
+    /** A connection to a server. */
+    private static class Client implements AutoCloseable {
+
+        /** A connection to SERVER. */
+        Client(Server server) throws IOException {
+            _channel = SocketChannel.open(server.address());
+            _in = new DataInputStream(Channels.newInputStream(_channel));
+            _out = new DataOutputStream(Channels.newOutputStream(_channel));
+        }
+
+        /** Send REQUEST and return the reply. */
+        String ask(String request) throws IOException {
+            Server.writeFrame(_out, request);
+            return Server.readFrame(_in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            _channel.close();
+        }
+
+        /** The connection. */
+        private final SocketChannel _channel;
+
+        /** Its input and output. */
+        private final DataInputStream _in;
+        private final DataOutputStream _out;
+    }
+
+    @Test
+    public void testSessions() throws IOException {
+        File image = File.createTempFile("enigma", ".img");
+        ConfigImage.write(spec(), image.getPath());
+        Server server = new Server(new InetSocketAddress(
+            InetAddress.getLoopbackAddress(), 0));
+        Thread serving = new Thread(server::serve);
+        serving.start();
+        try (Client one = new Client(server);
+             Client two = new Client(server)) {
+            assertTrue(one.ask("MSG ABC").startsWith("ERR "));
+            assertEquals("OK", one.ask("CONFIG " + image.getPath()));
+            assertEquals("OK", two.ask("CONFIG " + image.getPath()));
+            assertEquals("OK", one.ask("SET * B Beta III IV I AXLE "
+                                       + "(HQ) (EX) (IP) (TR) (BY)"));
+            assertEquals("OK", two.ask("SET * B Beta III IV I AXLE "
+                                       + "(HQ) (EX) (IP) (TR) (BY)"));
+            assertEquals("OK QVPQS OKOIL PUBKJ ZPISF XDW",
+                         one.ask("MSG FROM HIS SHOULDER HIAWATHA"));
+            assertEquals("OK QVPQS OKOIL PUBKJ ZPISF XDW",
+                         two.ask("MSG FROMHISSHOULDERHIAWATHA"));
+            assertEquals("OK BHCNS CXNUO AATZX SRCFY DGU",
+                         one.ask("MSG TOOK THE CAMERA OF ROSEWOOD"));
+            assertTrue(one.ask("SET * B Beta III IV II AXLE")
+                       .startsWith("ERR "));
+            assertTrue(one.ask("JUMP").startsWith("ERR "));
+            assertEquals("OK", one.ask("QUIT"));
+        } finally {
+            server.close();
+            image.delete();
+        }
+    }
+
+    @Test
+    public void testFailedSet() throws IOException {
+        File image = File.createTempFile("enigma", ".img");
+        ConfigImage.write(spec(), image.getPath());
+        Server server = new Server(new InetSocketAddress(
+            InetAddress.getLoopbackAddress(), 0));
+        new Thread(server::serve).start();
+        try (Client client = new Client(server)) {
+            assertEquals("OK", client.ask("CONFIG " + image.getPath()));
+            assertEquals("OK", client.ask("SET * B Beta III IV I AXLE "
+                                          + "(HQ) (EX)"));
+            assertTrue(client.ask("MSG HELLO").startsWith("OK "));
+            assertTrue(client.ask("SET * B Beta I II III AXL (HQ)")
+                       .startsWith("ERR "));
+            assertTrue(client.ask("MSG HELLO").startsWith("ERR "));
+            assertEquals("OK", client.ask("SET * B Beta III IV I AXLE "
+                                          + "(HQ) (EX) (IP) (TR) (BY)"));
+            assertEquals("OK QVPQS OKOIL PUBKJ ZPISF XDW",
+                         client.ask("MSG FROM HIS SHOULDER HIAWATHA"));
+        } finally {
+            server.close();
+            image.delete();
+        }
+    }
+
+    @Test
+    public void testSocketFile() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path path = dir.resolve("server.sock");
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(path);
+        try {
+            Server server = new Server(address);
+            server.close();
+            assertFalse(Files.exists(path));
+            ServerSocketChannel crashed =
+                ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            crashed.bind(address);
+            crashed.close();
+            assertTrue(Files.exists(path));
+            server = new Server(address);
+            try {
+                new Server(address);
+                fail("second server bound a live socket");
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage().contains("in use"));
+            } finally {
+                server.close();
+            }
+        } finally {
+            Files.deleteIfExists(path);
+            Files.delete(dir);
+        }
+    }
+
+}
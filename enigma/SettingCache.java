@@ -0,0 +1,95 @@
+package enigma;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** The machine states produced by recently applied setting lines, so
+ *  that a setting line seen before can be applied by restoring its
+ *  state rather than by parsing and checking it again.  Lines are
+ *  looked up in normalized form (see normalize), and at most a fixed
+ *  number are kept, the least recently used being dropped first.  A
+ *  SettingCache may be used from any number of threads.
+ *  @author Smit Malde
+ */
+class SettingCache {
+
+    /** A cache holding the states of at most CAPACITY setting lines. */
+    SettingCache(int capacity) {
+        _capacity = capacity;
+        _states = new LinkedHashMap<String, MachineState>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, MachineState> eldest) {
+                return size() > _capacity;
+            }
+        };
+    }
+
+    /** Return the state produced by the normalized setting line LINE,
+     *  or null if I do not have it, counting a hit or miss in
+     *  Metrics. */
+    synchronized MachineState get(String line) {
+        MachineState result = _states.get(line);
+        if (result == null) {
+            Metrics.get().settingMiss();
+        } else {
+            Metrics.get().settingHit();
+        }
+        return result;
+    }
+
+    /** Record that the normalized setting line LINE produces STATE. */
+    synchronized void put(String line, MachineState state) {
+        _states.put(line, state);
+    }
+
+    /** Return the number of setting lines I hold. */
+    synchronized int size() {
+        return _states.size();
+    }
+
+    /** Return the most setting lines I hold. */
+    int capacity() {
+        return _capacity;
+    }
+
+    /** Return LINE with leading and trailing whitespace removed and
+     *  each other run of whitespace replaced by one blank, so that
+     *  lines with the same fields have the same normalized form.
+     *  Returns LINE itself if it is already normalized. */
+    static String normalize(String line) {
+        int n = line.length();
+        boolean normal = n == 0 || !Character.isWhitespace(line.charAt(0))
+            && !Character.isWhitespace(line.charAt(n - 1));
+        for (int i = 1; normal && i < n; i += 1) {
+            char ch = line.charAt(i);
+            normal = !Character.isWhitespace(ch)
+                || ch == ' ' && !Character.isWhitespace(line.charAt(i - 1));
+        }
+        if (normal) {
+            return line;
+        }
+        StringBuilder result = new StringBuilder(n);
+        boolean blank = false;
+        for (int i = 0; i < n; i += 1) {
+            char ch = line.charAt(i);
+            if (Character.isWhitespace(ch)) {
+                blank = result.length() > 0;
+            } else {
+                if (blank) {
+                    result.append(' ');
+                    blank = false;
+                }
+                result.append(ch);
+            }
+        }
+        return result.toString();
+    }
+
+    /** Most entries in _states. */
+    private final int _capacity;
+
+    /** State produced by each setting line, in order of use. */
+    private final LinkedHashMap<String, MachineState> _states;
+
+}
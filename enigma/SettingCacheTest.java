@@ -0,0 +1,88 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the SettingCache class.
+ *  @author Smit Malde
+ */
+public class SettingCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    private static final String SETTING =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /** Return a new specification with the naval rotors B, Beta, I, III,
+     *  and IV, and so with an empty setting cache. */
+    private static MachineSpec spec() {
+        return TestUtils.navalSpec(new Alphabet(TestUtils.UPPER_STRING), 5, 3,
+                                   new String[] { "B" },
+                                   new String[] { "Beta" },
+                                   new String[] { "I", "III", "IV" },
+                                   new String[] { "Q", "V", "J" });
+    }
+
+    @Test
+    public void testNormalize() {
+        assertSame(SETTING, SettingCache.normalize(SETTING));
+        assertEquals(SETTING,
+                     SettingCache.normalize("  *  B Beta\tIII IV I AXLE "
+                                            + "(HQ) (EX) (IP) (TR) (BY)\r"));
+        assertEquals("", SettingCache.normalize(" \t "));
+    }
+
+    @Test
+    public void testEviction() {
+        SettingCache cache = new SettingCache(2);
+        MachineState state = new MachineState(
+            new String[0], new int[0], new int[0],
+            new Permutation("", new Alphabet()));
+        cache.put("a", state);
+        cache.put("b", state);
+        assertSame(state, cache.get("a"));
+        cache.put("c", state);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertSame(state, cache.get("a"));
+        assertSame(state, cache.get("c"));
+    }
+
+    @Test
+    public void testSetUpFromCache() {
+        MachineSpec spec = spec();
+        Machine first = spec.newMachine(), second = spec.newMachine();
+        long hits = Metrics.get().getSettingHits();
+        Main.setUp(first, SETTING);
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                     first.convert("FROMHISSHOULDERHIAWATHA"));
+        Main.setUp(second, " " + SETTING.replace(" ", "  "));
+        assertEquals(hits + 1, Metrics.get().getSettingHits());
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                     second.convert("FROMHISSHOULDERHIAWATHA"));
+        Main.setUp(first, SETTING);
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                     first.convert("FROMHISSHOULDERHIAWATHA"));
+    }
+
+    @Test
+    public void testErrorsNotCached() {
+        Machine mach = spec().newMachine();
+        for (int i = 0; i < 2; i += 1) {
+            try {
+                Main.setUp(mach, "* B Beta III IV I AXLE (HQ) (HX)");
+                fail("bad plugboard accepted");
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage().contains("repeated"));
+            }
+        }
+        assertEquals(0, mach.spec().settings().size());
+    }
+
+}
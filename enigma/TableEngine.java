@@ -0,0 +1,92 @@
+package enigma;
+
+/** The conversion engine that converts through tables precomputed for
+ *  each rotor and ring setting, stepping and applying only the pawled
+ *  rotors for each character, with the non-moving rotors folded into
+ *  one lookup.
+ *  @author Smit Malde
+ */
+class TableEngine implements ConversionEngine {
+
+    @Override
+    public String name() {
+        return "table";
+    }
+
+    @Override
+    public boolean tableDriven() {
+        return true;
+    }
+
+    @Override
+    public void convert(Machine m, int[] msg, int off, int len) {
+        convert(m.movingRotors(), m.reflection(), m.plugboard(), msg, off,
+                len);
+    }
+
+    @Override
+    public void convert(Machine m, byte[] msg, int off, int len) {
+        convert(m.movingRotors(), m.reflection(), m.plugboard(), msg, off,
+                len);
+    }
+
+    /** Convert in place the LEN indices in MSG starting at OFF through
+     *  the pawled rotors MOVING, the folded non-moving rotors
+     *  REFLECTION, and PLUGBOARD, stepping MOVING before each. */
+    private static void convert(Rotor[] moving, int[] reflection,
+                                Permutation plugboard, int[] msg,
+                                int off, int len) {
+        int last = moving.length - 1;
+        for (int i = off; i < off + len; i++) {
+            step(moving, last);
+            int c = plugboard.permute(msg[i]);
+            for (int k = last; k >= 0; k--) {
+                c = moving[k].convertForward(c);
+            }
+            c = reflection[c];
+            for (int k = 0; k <= last; k++) {
+                c = moving[k].convertBackward(c);
+            }
+            msg[i] = plugboard.permute(c);
+        }
+    }
+
+    /** As for convert(Rotor[], int[], Permutation, int[], int, int),
+     *  for indices stored as unsigned bytes, which must be less than the
+     *  size of PLUGBOARD. */
+    private static void convert(Rotor[] moving, int[] reflection,
+                                Permutation plugboard, byte[] msg,
+                                int off, int len) {
+        int n = plugboard.size(), last = moving.length - 1;
+        for (int i = off; i < off + len; i++) {
+            int c = msg[i] & BYTE_MASK;
+            if (c >= n) {
+                throw new EnigmaException(c + " is out of range");
+            }
+            step(moving, last);
+            c = plugboard.permute(c);
+            for (int k = last; k >= 0; k--) {
+                c = moving[k].convertForward(c);
+            }
+            c = reflection[c];
+            for (int k = 0; k <= last; k++) {
+                c = moving[k].convertBackward(c);
+            }
+            msg[i] = (byte) plugboard.permute(c);
+        }
+    }
+
+    /** Step the pawled rotors MOVING, whose last index is LAST, as
+     *  Machine does before each character. */
+    private static void step(Rotor[] moving, int last) {
+        for (int k = 0; k < last; k++) {
+            if (moving[k + 1].atNotch() || k > 0 && moving[k].atNotch()) {
+                moving[k].advance();
+            }
+        }
+        if (last >= 0) {
+            moving[last].advance();
+        }
+    }
+
+}
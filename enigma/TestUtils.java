@@ -1,5 +1,6 @@
 package enigma;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /** Utility definitions for use in unit tests.
@@ -18,6 +19,31 @@ class TestUtils {
         return testId + " (" + String.format(msgFormat, args) + ")";
     }
 
+    /** Return a specification over ALPHA, which holds at least A-Z, for
+     *  machines with NUMROTORS slots and PAWLS pawls, whose rotors are
+     *  the naval rotors named: the reflectors REFLECTORS, the fixed
+     *  rotors FIXED, and the moving rotors MOVING, where MOVING[i] has
+     *  the notches NOTCHES[i]. */
+    static MachineSpec navalSpec(Alphabet alpha, int numRotors, int pawls,
+                                 String[] reflectors, String[] fixed,
+                                 String[] moving, String[] notches) {
+        ArrayList<Rotor> rotors = new ArrayList<Rotor>();
+        for (String name : reflectors) {
+            rotors.add(new Reflector(name,
+                           new Permutation(NAVALA.get(name), alpha)));
+        }
+        for (String name : fixed) {
+            rotors.add(new FixedRotor(name,
+                           new Permutation(NAVALA.get(name), alpha)));
+        }
+        for (int i = 0; i < moving.length; i += 1) {
+            rotors.add(new MovingRotor(moving[i],
+                           new Permutation(NAVALA.get(moving[i]), alpha),
+                           notches[i]));
+        }
+        return new MachineSpec(alpha, numRotors, pawls, rotors);
+    }
+
     /** The naval rotors in the A (0) setting. */
     static final HashMap<String, String> NAVALA = new HashMap<>();
     static {
@@ -0,0 +1,52 @@
+package enigma;
+
+/** A receiver for a step-by-step account of the characters converted
+ *  by a Machine: the rotor settings, then each contact the signal passes
+ *  through from the keyboard to the lamp.  Machines consult enabled()
+ *  once per character and build no record at all when it is false.
+ *  @author Smit Malde
+ */
+interface Tracer {
+
+    /** A Tracer that records nothing. */
+    Tracer NONE = new Tracer() {
+        @Override
+        public boolean enabled() {
+            return false;
+        }
+
+        @Override
+        public void begin(CharSequence settings, char input) {
+        }
+
+        @Override
+        public void hop(char contact) {
+        }
+
+        @Override
+        public void end(char output) {
+        }
+
+        @Override
+        public void flush() {
+        }
+    };
+
+    /** Return true iff I want records. */
+    boolean enabled();
+
+    /** Start the record of one character, INPUT, converted with the
+     *  rotors at SETTINGS (leftmost first, not counting the reflector). */
+    void begin(CharSequence settings, char input);
+
+    /** Record that the signal passed through CONTACT. */
+    void hop(char contact);
+
+    /** Finish the record of the current character, which was converted
+     *  to OUTPUT. */
+    void end(char output);
+
+    /** Deliver everything recorded so far to its destination. */
+    void flush();
+
+}
@@ -16,7 +16,12 @@ public class UnitTest {
         }
         System.exit(textui.runClasses(PermutationTest.class,
                 MovingRotorTest.class,
-                MachineTest.class));
+                MachineTest.class, LineReaderTest.class,
+                BombeTest.class, HillClimbTest.class,
+                ConfigImageTest.class, ServerTest.class,
+                LaneConverterTest.class, MetricsTest.class,
+                GroupWriterTest.class, SettingCacheTest.class,
+                KeystreamCacheTest.class, ConversionEngineTest.class));
     }
 
 }